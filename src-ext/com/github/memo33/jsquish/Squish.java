@@ -26,6 +26,12 @@
 
 package com.github.memo33.jsquish;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public final class Squish {
 
     public enum CompressionType {
@@ -154,46 +160,88 @@ public final class Squish {
 
         final CompressionTask task = new CompressionTask(type, method, metric, weightAlpha);
 
-        // loop over blocks
-        int targetBlock = 0;
-        for ( int y = 0; y < height; y += 4 ) {
-            for ( int x = 0; x < width; x += 4 ) {
-                // build the 4x4 block of pixels
-                int targetPixel = 0;
-                int mask = 0;
-                for ( int py = 0; py < 4; ++py ) {
-                    final int sy = y + py;
-                    for ( int px = 0; px < 4; ++px ) {
-                        // get the source pixel in the image
-                        final int sx = x + px;
+        // loop over rows of blocks
+        final int rows = (height + 3) / 4;
+        for ( int row = 0; row < rows; ++row )
+            compressRow(rgba, width, height, blocks, row, sourceRGBA, task);
 
-                        // enable if we're in the image
-                        if ( sx < width && sy < height ) {
-                            // copy the rgba value
-                            int sourcePixel = 4 * (width * sy + sx);
-                            for ( int i = 0; i < 4; ++i )
-                                sourceRGBA[targetPixel++] = rgba[sourcePixel++];
+        return blocks;
+    }
 
-                            // enable this pixel
-                            mask |= (1 << (4 * py + px));
-                        } else {
-                            // skip this pixel as its outside the image
-                            targetPixel += 4;
-                        }
-                    }
-                }
+    public static byte[] compressImageParallel(final byte[] rgba, final int width, final int height, final byte[] blocks, final CompressionType type, final CompressionMethod method) {
+        return compressImageParallel(rgba, width, height, blocks, type, method, CompressionMetric.PERCEPTUAL, false, ForkJoinPool.commonPool());
+    }
 
-                // compress it into the output
-                compress(sourceRGBA, mask, blocks, targetBlock, task);
+    // same output as compressImage. Rows of blocks are handed out to one worker per thread of the pool,
+    // each with its own CompressionTask, and every row is written to its own region of blocks.
+    public static byte[] compressImageParallel(final byte[] rgba, final int width, final int height, byte[] blocks,
+                                               final CompressionType type, final CompressionMethod method, final CompressionMetric metric, final boolean weightAlpha,
+                                               final ForkJoinPool pool) {
+        blocks = checkCompressInput(rgba, width, height, blocks, type);
 
-                // advance
-                targetBlock += type.blockSize;
-            }
+        final int rows = (height + 3) / 4;
+        final int workers = Math.min(rows, pool.getParallelism());
+        if ( workers < 2 )
+            return compressImage(rgba, width, height, blocks, type, method, metric, weightAlpha);
+
+        final byte[] target = blocks;
+        final AtomicInteger nextRow = new AtomicInteger();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(workers);
+        for ( int i = 0; i < workers; ++i ) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                final byte[] sourceRGBA = new byte[16 * 4];
+                final CompressionTask task = new CompressionTask(type, method, metric, weightAlpha);
+
+                // rows are claimed one at a time so that slow rows do not hold up the other workers
+                for ( int row = nextRow.getAndIncrement(); row < rows; row = nextRow.getAndIncrement() )
+                    compressRow(rgba, width, height, target, row, sourceRGBA, task);
+            }));
         }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
 
         return blocks;
     }
 
+    private static void compressRow(final byte[] rgba, final int width, final int height, final byte[] blocks, final int row,
+                                    final byte[] sourceRGBA, final CompressionTask task) {
+        final int y = row * 4;
+        int targetBlock = row * ((width + 3) / 4) * task.type.blockSize;
+
+        // loop over blocks
+        for ( int x = 0; x < width; x += 4 ) {
+            // build the 4x4 block of pixels
+            int targetPixel = 0;
+            int mask = 0;
+            for ( int py = 0; py < 4; ++py ) {
+                final int sy = y + py;
+                for ( int px = 0; px < 4; ++px ) {
+                    // get the source pixel in the image
+                    final int sx = x + px;
+
+                    // enable if we're in the image
+                    if ( sx < width && sy < height ) {
+                        // copy the rgba value
+                        int sourcePixel = 4 * (width * sy + sx);
+                        for ( int i = 0; i < 4; ++i )
+                            sourceRGBA[targetPixel++] = rgba[sourcePixel++];
+
+                        // enable this pixel
+                        mask |= (1 << (4 * py + px));
+                    } else {
+                        // skip this pixel as its outside the image
+                        targetPixel += 4;
+                    }
+                }
+            }
+
+            // compress it into the output
+            compress(sourceRGBA, mask, blocks, targetBlock, task);
+
+            // advance
+            targetBlock += task.type.blockSize;
+        }
+    }
+
     private static byte[] checkCompressInput(final byte[] rgba, final int width, final int height, byte[] blocks, final CompressionType type) {
         final int storageSize = getStorageRequirements(width, height, type);
 
@@ -26,6 +26,7 @@ import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.imageio.ImageIO;
@@ -45,6 +46,7 @@ import com.github.luther_1.ptexedit.papafile.PapaTexture.ImmutableTextureSetting
 public class BatchConvertDialog extends JDialog  {
 
 	private static final long serialVersionUID = -6635278548154607017L;
+	private static final long MAX_IN_FLIGHT_BYTES = 32L * 1024 * 1024; // written in chunks, so this no longer has to fit a whole file
 	
 	private PapaOptions papaOptions;
 	
@@ -231,6 +233,7 @@ public class BatchConvertDialog extends JDialog  {
 		private boolean papaInput, recursive, writeLinked, overwrite, ignoreHierarchy;
 		private AtomicInteger processedFiles = new AtomicInteger();
 		private float totalFiles;
+		private AsyncOutput outputStage;
 		
 		public FileWorker(File inputDirectory, File outputDirectory, ImportInterface importInterface, FileNameExtensionFilter fileExtensionFilter, ImmutableTextureSettings settings,
 							boolean recursive, boolean writeLinked, boolean overwrite, boolean ignoreHierarchy) {
@@ -291,6 +294,7 @@ public class BatchConvertDialog extends JDialog  {
 				}
 			});
 			info.setInternalMode(true);
+			outputStage = new AsyncOutput(MAX_IN_FLIGHT_BYTES);
 			try {
 				getFileHandler().readFiles(input, importInterface, info, recursive, true);
 				if(info.getNumAcceptedFiles() ==0 && info.getNumRejectedFiles()==0)
@@ -300,6 +304,8 @@ public class BatchConvertDialog extends JDialog  {
 				progressSection.setStatus("Stopping");
 				getFileHandler().cancelActiveTask();
 				progressSection.setStatus("Task Cancelled");
+			} finally {
+				outputStage.close(); // waits for the writes still in flight
 			}
 			logSection.logLater("Finished conversion of "+input.getName());
 			
@@ -335,7 +341,7 @@ public class BatchConvertDialog extends JDialog  {
 			File f = p.getFile();
 			File targetLocation = getFileRelative(inputString, outputString, f);
 			boolean hasMadeDir = false;
-			String rejectMessage ="";
+			PendingFile pending = new PendingFile(f);
 			if(papaInput) {
 				if(p.getNumTextures()==0) {
 					rejectFile(f, "File contains no textures");
@@ -345,11 +351,11 @@ public class BatchConvertDialog extends JDialog  {
 					PapaTexture tex = p.getTexture(0);
 					if(tex.isLinked()) {
 						if( ! writeLinked) {
-							rejectMessage+="Ignoring linked texture "+tex.getName()+"; ";
+							pending.reject("Ignoring linked texture "+tex.getName());
 							continue;
 						}
 						if( ! tex.linkValid()) {
-							rejectMessage+="Linked texture "+tex.getName()+" not found; ";
+							pending.reject("Linked texture "+tex.getName()+" not found");
 							continue;
 						}
 						tex = tex.getLinkedTexture();
@@ -357,7 +363,7 @@ public class BatchConvertDialog extends JDialog  {
 					File targetLocationImage = new File(targetLocation.getParent()+File.separator 
 							+replaceExtension(extractName(tex.getName()),fileExtensionFilter.getExtensions()[0]));
 					if(targetLocationImage.exists() && ! overwrite) {
-						rejectMessage+="File"+targetLocationImage+" already exists; ";
+						pending.reject("File"+targetLocationImage+" already exists");
 						continue;
 					}
 					
@@ -369,9 +375,10 @@ public class BatchConvertDialog extends JDialog  {
 						hasMadeDir = true;
 					}
 					try {
-						FileHandler.exportImage(tex, targetLocationImage);
+						FileHandler.exportImage(tex, targetLocationImage, outputStage, pending.submit());
 					} catch (IOException e) {
-						rejectMessage+=e.getMessage()+"; ";
+						pending.reject(e.getMessage());
+						pending.finish(); // the write was never submitted
 					}
 				}
 			} else {
@@ -385,17 +392,45 @@ public class BatchConvertDialog extends JDialog  {
 					return;
 				}
 				try {
-					FileHandler.writeFile(p, targetLocationTexture);
+					FileHandler.writeFile(p, targetLocationTexture, outputStage, pending.submit());
 				} catch (IOException e) {
-					rejectFile(f, e.getMessage());
-					return;
+					pending.reject(e.getMessage());
+					pending.finish();
 				}
 			}
-			if(rejectMessage.equals(""))
-				acceptFile(f);
-			else
-				rejectFile(f, rejectMessage.substring(0,rejectMessage.length() - 2));
-				
+			pending.finish();
+		}
+		
+		private class PendingFile { // accepts or rejects a file once all of its writes have completed
+			private final File file;
+			private final AtomicInteger pending = new AtomicInteger(1);
+			private final StringBuffer rejectMessage = new StringBuffer();
+			
+			private PendingFile(File file) {
+				this.file = file;
+			}
+			
+			private void reject(String message) {
+				rejectMessage.append(message+"; ");
+			}
+			
+			private Consumer<IOException> submit() {
+				pending.incrementAndGet();
+				return (e) -> {
+					if(e!=null)
+						reject(e.getMessage());
+					finish();
+				};
+			}
+			
+			private void finish() {
+				if(pending.decrementAndGet()!=0)
+					return;
+				if(rejectMessage.length()==0)
+					acceptFile(file);
+				else
+					rejectFile(file, rejectMessage.substring(0,rejectMessage.length() - 2));
+			}
 		}
 		
 		private String extractName(String in) {
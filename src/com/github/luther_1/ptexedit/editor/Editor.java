@@ -245,6 +245,12 @@ public class Editor extends JFrame {
 			if(PapaFile.getPlanetaryAnnihilationDirectory()!=null)
 				prop.setProperty("PapaFile.PADirectory", 			PapaFile.getPlanetaryAnnihilationDirectory().getAbsolutePath());
 			
+			String searchPaths = "";
+			for(File f : PapaFile.getSearchPaths())
+				if(!f.equals(PapaFile.getPlanetaryAnnihilationDirectory()))
+					searchPaths += (searchPaths.isEmpty() ? "" : File.pathSeparator) + f.getAbsolutePath();
+			prop.setProperty("PapaFile.SearchPaths", 				searchPaths);
+			
 			try {
 				prop.store(new FileOutputStream(Main.settingsFile), null);
 			} catch (IOException e2) { e2.printStackTrace();}
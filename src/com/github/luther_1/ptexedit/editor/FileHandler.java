@@ -22,12 +22,27 @@ package com.github.luther_1.ptexedit.editor;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
-//import java.util.zip.*;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.swing.*;
 import javax.swing.filechooser.*;
 import javax.swing.table.DefaultTableModel;
@@ -111,8 +126,9 @@ public class FileHandler {
 		ArrayList<StreamableData> toParse = getValidInputs(f, importInterface, info, recursive);
 		info.setTotalFileCount(toParse.size());
 		
-		if(f.isDirectory()) {
+		if(f.isDirectory() || PapaPack.isPack(f) || isZip(f)) {
 			if(! info.isInternalMode() && ! checkMassInput(f,toParse,importInterface)) {
+				toParse.forEach(StreamableData::release);
 				return;
 			}
 			info.setDirectoryMode();
@@ -121,15 +137,18 @@ public class FileHandler {
 				importInterface.rejectFile(f, info, f.getName()+" is not a"+(importInterface == IMAGE_INTERFACE ? "n ":" ")+importInterface.getType() + " file");
 		}
 		
-		toParse.stream().forEach((StreamableData sd) -> {
-			try {
-				RunnableHandle r = importInterface.getRunnable(sd.getHandle(), sd.getStream(), sd.getFile(), info);
+		int submitted = 0;
+		try {
+			for(StreamableData sd : toParse) {
+				RunnableHandle r = importInterface.getRunnable(sd, info);
 				tasks.add(executor.submit(r));
 				submittedTasks.add(r);
-			} catch (IOException e1) {
-				throw new IllegalArgumentException(e1);
+				submitted++;
 			}
-		});
+		} finally {
+			for(int i = submitted;i<toParse.size();i++) // entries that never reach a task would keep their archive open
+				toParse.get(i).release();
+		}
 		
 		if(wait || info.isDirectoryMode()) {
 			try {
@@ -176,11 +195,12 @@ public class FileHandler {
 	}
 
 	private static ArrayList<StreamableData> getValidInputs(File f, ImportInterface importInterface, ImportInfo info, boolean recursive) throws InterruptedException {
+		ArrayList<StreamableData> list = new ArrayList<StreamableData>();
 		try {
-			ArrayList<StreamableData> list = new ArrayList<StreamableData>();
 			getValidFiles(list,f,importInterface, info,recursive);
 			return list;
 		} catch (InterruptedException e) {
+			list.forEach(StreamableData::release);
 			throw e;
 		}
 	}
@@ -194,6 +214,10 @@ public class FileHandler {
 			
 			for(File f2 : files)
 				getValidFiles(list,f2,importInterface, info, recursive);
+		} else if(PapaPack.isPack(f)) {
+			getValidPackEntries(list, f, importInterface, info);
+		} else if(isZip(f)) {
+			getValidZipEntries(list, f, importInterface, info);
 		} else if(importInterface.filter(f)) {
 			list.add(new StreamableFile(f));
 			info.activityListener.onFoundAcceptableFile(f, list.size());
@@ -201,6 +225,82 @@ public class FileHandler {
 		
 	}
 	
+	private static void getValidPackEntries(ArrayList<StreamableData> list, File f, ImportInterface importInterface, ImportInfo info) throws InterruptedException {
+		PapaPack pack;
+		try {
+			pack = PapaPack.open(f.toPath());
+		} catch (IOException e) {
+			info.reject(f, e.getMessage());
+			return;
+		}
+		Handle handle = new Handle(pack); // the pack is closed once the last of its entries is read
+		int first = list.size();
+		int found = 0;
+		try {
+			for(String path : pack.getEntryPaths()) {
+				if(Thread.interrupted())
+					throw new InterruptedException();
+				File entryFile = pack.getEntryFile(path);
+				if(importInterface.filter(entryFile)) {
+					handle.countUp();
+					list.add(new StreamablePackEntry(pack, path, handle));
+					info.activityListener.onFoundAcceptableFile(entryFile, list.size());
+					found++;
+				}
+			}
+		} catch (InterruptedException e) {
+			list.subList(first, list.size()).clear(); // closed below, the caller only releases entries of finished archives
+			found = 0;
+			throw e;
+		} finally {
+			handle.start();
+			if(found==0)
+				handle.closeStream();
+		}
+	}
+	
+	private static boolean isZip(File f) {
+		return f.isFile() && getExtension(f).equals("zip");
+	}
+	
+	private static void getValidZipEntries(ArrayList<StreamableData> list, File f, ImportInterface importInterface, ImportInfo info) throws InterruptedException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(f);
+		} catch (IOException e) {
+			info.reject(f, e.getMessage());
+			return;
+		}
+		Handle handle = new Handle(zip); // the zip is closed once the last of its entries is read
+		int first = list.size();
+		int found = 0;
+		try {
+			Enumeration<? extends ZipEntry> entries = zip.entries(); // zip has no hierarchy, every entry is listed at the root
+			while(entries.hasMoreElements()) {
+				if(Thread.interrupted())
+					throw new InterruptedException();
+				ZipEntry entry = entries.nextElement();
+				if(entry.isDirectory())
+					continue;
+				File entryFile = new File(f, entry.getName());
+				if(importInterface.filter(entryFile)) {
+					handle.countUp();
+					list.add(new StreamableZipEntry(entryFile, zip, entry, handle));
+					info.activityListener.onFoundAcceptableFile(entryFile, list.size());
+					found++;
+				}
+			}
+		} catch (InterruptedException e) {
+			list.subList(first, list.size()).clear(); // closed below, the caller only releases entries of finished archives
+			found = 0;
+			throw e;
+		} finally {
+			handle.start();
+			if(found==0)
+				handle.closeStream();
+		}
+	}
+	
 	public void cancelActiveTask() {
 		executor.shutdownNow();
 		try {
@@ -244,25 +344,24 @@ public class FileHandler {
 	public final ImportInterface PAPA_INTERFACE = new ImportInterface() {
 		@Override
 		public boolean filter(File file) {
-			return file.getPath().endsWith("papa");
+			return getExtension(file).equals("papa"); // same rule as PapaPack, ignoring case
 		}
 
 		@Override
-		public RunnableHandle getRunnable(Handle handle, InputStream stream, File file, ImportInfo info) {
-			return new RunnableHandle(handle) {
+		public RunnableHandle getRunnable(StreamableData source, ImportInfo info) {
+			File file = source.getFile();
+			return new RunnableHandle(source.getHandle()) {
 				@Override
 				public void run() {
 					info.onStartProcessFile(file, Thread.currentThread().getName());
-					String path = file.getPath();
 					PapaFile papaFile;
 					try {
-						papaFile = new PapaFile(stream, path);
+						papaFile = source.readPapaFile();
 					} catch (IOException e) {
 						log("Error on file "+file,e);
 						rejectFile(file, info, e.getMessage());
 						return;
 					} finally {
-						PAPA_INTERFACE.closeStream(stream);
 						countDown();
 					}
 					
@@ -296,11 +395,13 @@ public class FileHandler {
 		}
 
 		@Override
-		public RunnableHandle getRunnable(Handle handle, InputStream stream, File file, ImportInfo info) {
-			return new RunnableHandle(handle) {
+		public RunnableHandle getRunnable(StreamableData source, ImportInfo info) {
+			File file = source.getFile();
+			return new RunnableHandle(source.getHandle()) {
 				@Override
 				public void run() {
 					info.onStartProcessFile(file, Thread.currentThread().getName());
+					InputStream stream = null;
 					BufferedImage b;
 					PapaFile p;
 					
@@ -319,6 +420,7 @@ public class FileHandler {
 						if(link && PapaFile.getPlanetaryAnnihilationDirectory()==null)
 							throw new IOException("Link is not available until the media directory is set.");
 						
+						stream = source.getStream();
 						b = ImageIO.read(stream);
 						PapaTexture t = new PapaTexture(b, info.getTextureSettings(), null, file.getName());
 						if(link) {
@@ -334,7 +436,8 @@ public class FileHandler {
 						rejectFile(file, info, e.getClass().getName()+": "+e.getMessage());
 						return;
 					} finally {
-						IMAGE_INTERFACE.closeStream(stream);
+						if(stream!=null)
+							IMAGE_INTERFACE.closeStream(stream);
 						countDown();
 					}
 					
@@ -352,7 +455,7 @@ public class FileHandler {
 	
 	public abstract class ImportInterface {
 		public abstract boolean filter(File file);
-		public abstract RunnableHandle getRunnable(Handle handle, InputStream stream, File input, ImportInfo info);
+		public abstract RunnableHandle getRunnable(StreamableData source, ImportInfo info);
 		public abstract String getType();
 		public final void rejectFile(File file, ImportInfo info, String reason) {
 			info.reject(file, reason);
@@ -494,6 +597,14 @@ public class FileHandler {
 		public abstract File getFile();
 		public abstract Handle getHandle();
 		public abstract InputStream getStream() throws IOException;
+		public void release() { // for data that is never read, lets the archive it belongs to close
+			Handle handle = getHandle();
+			if(handle!=null)
+				handle.countDown();
+		}
+		public PapaFile readPapaFile() throws IOException {
+			return new PapaFile(getStream(), getFile().getPath());
+		}
 	}
 	
 	private static class StreamableFile extends StreamableData {
@@ -518,16 +629,55 @@ public class FileHandler {
 			return null;
 		}
 		
+		@Override
+		public PapaFile readPapaFile() throws IOException { // plain files on disk can be mapped directly
+			return new PapaFile(input.toPath());
+		}
+		
 	}
 	
-	/*private static class StreamableZipEntry extends StreamableData { //TODO: this currently causes a memory leak as nothing ever closes the zipFile
-	 // fixing would require that a reference to the zip file is to be stored and returned, then closed when the method ends
+	private static class StreamablePackEntry extends StreamableData {
+		private final PapaPack pack;
+		private final String path;
+		private final Handle packHandle;
+		
+		public StreamablePackEntry(PapaPack pack, String path, Handle packHandle) {
+			this.pack = pack;
+			this.path = path;
+			this.packHandle = packHandle;
+		}
+		
+		@Override
+		public File getFile() {
+			return pack.getEntryFile(path);
+		}
+		
+		@Override
+		public InputStream getStream() throws IOException {
+			ByteBuffer data = pack.getEntryData(path);
+			byte[] bytes = new byte[data.remaining()];
+			data.get(bytes);
+			return new ByteArrayInputStream(bytes);
+		}
+		
+		@Override
+		public Handle getHandle() {
+			return packHandle;
+		}
+		
+		@Override
+		public PapaFile readPapaFile() throws IOException { // parsed straight from the pack's mapping
+			return pack.readFile(path);
+		}
+	}
+	
+	private static class StreamableZipEntry extends StreamableData {
 		private final File input;
 		private final ZipFile zipFile;
 		private final ZipEntry entry;
 		private final Handle zipHandle;
 		
-		public StreamableZipFile(File path, ZipFile file, ZipEntry entry, Handle zipHandle) {
+		public StreamableZipEntry(File path, ZipFile file, ZipEntry entry, Handle zipHandle) {
 			this.input = path;
 			this.zipFile = file;
 			this.entry = entry;
@@ -550,16 +700,6 @@ public class FileHandler {
 		}
 	}
 	
-	Zip has no file heirarchy in java,  all entries are at the root.
-	names of zip entries in PTexEdit zip file (with extra new folder + license copy):
-	PTexEdit/LICENSE
-	PTexEdit/LICENSE-3RD-PARTY
-	PTexEdit/New folder/
-	PTexEdit/New folder/LICENSE
-	PTexEdit/PTexEdit.jar
-	
-	*/
-	
 	private static class Handle {
 		private Closeable handle;
 		private AtomicBoolean isStarted = new AtomicBoolean();
@@ -681,29 +821,26 @@ public class FileHandler {
 	}
 
 	public static void writeFile(PapaFile target, File location) throws IOException {
-		
-		FileOutputStream fos = null;
-		try {
-			target.build();
+		target.writeTo(location.toPath()); // streams the components to disk without building the whole file in memory
+		if( ! target.buildSuccessful())
+			throw new IOException(generateBuildError(target.getBuildNotifications()));
+		if(!Editor.SUPPRESS_WARNINGS)
+			if (target.testBuildErrorLevel(1))
+				throw new UnsupportedEncodingException(generateBuildWarnings(target.getBuildNotifications())); // build succeeded, but warnings
+	}
+	
+	public static void writeFile(PapaFile target, File location, AsyncOutput output, Consumer<IOException> onComplete) throws IOException {
+		// builds on the calling thread while the output stage writes behind it. onComplete is only called if nothing is thrown.
+		try(AsyncOutput.Output out = output.open(location.toPath())) {
+			target.build(out);
 			if( ! target.buildSuccessful())
 				throw new IOException(generateBuildError(target.getBuildNotifications()));
-			
-			location.createNewFile();
-			fos = new FileOutputStream(location);
-			byte[] data = target.getFileBytes();
-			fos.write(data);
-			if(!Editor.SUPPRESS_WARNINGS)
-				if (target.testBuildErrorLevel(1))
-					throw new UnsupportedEncodingException(generateBuildWarnings(target.getBuildNotifications())); // build succeeded, but warnings
-		} catch (IOException e1) {
-			throw e1;
-		} finally {
-			try {
-				if(fos!=null)
-					fos.close();
-			} catch (IOException e1) {
-				e1.printStackTrace();
+			if(!Editor.SUPPRESS_WARNINGS && target.testBuildErrorLevel(1)) {
+				String warnings = generateBuildWarnings(target.getBuildNotifications());
+				Consumer<IOException> callback = onComplete;
+				onComplete = (e) -> callback.accept(e!=null ? e : new UnsupportedEncodingException(warnings));
 			}
+			out.commit(onComplete);
 		}
 	}
 	
@@ -726,18 +863,275 @@ public class FileHandler {
 	
 	public static void exportImage(PapaTexture tex, File file) throws IOException {
 		String ext = file.getName().substring(file.getName().lastIndexOf(".") + 1);
-		BufferedImage toWrite = tex.getImage();
-		if(ext.equals("jpeg") || ext.equals("jpg") || ext.equals("bmp") || ext.equals("wbmp")) {
-			toWrite = toModel(toWrite,BufferedImage.TYPE_INT_RGB);
-		}
 		try {
-			if(!ImageIO.write(toWrite, ext, file))
+			if(!ImageIO.write(getExportImage(tex, ext), ext, file))
 				throw new IOException("File extension "+ext+" is not supported for export.");
 		} catch (IOException e) {
 			throw e;
 		}
 	}
 	
+	public static void exportImage(PapaTexture tex, File file, AsyncOutput output, Consumer<IOException> onComplete) throws IOException {
+		// encodes on the calling thread while the output stage writes behind it. onComplete is only called if nothing is thrown.
+		String ext = file.getName().substring(file.getName().lastIndexOf(".") + 1);
+		try(AsyncOutput.Output out = output.open(file.toPath())) {
+			// ImageIO would otherwise cache the output in a temp file. The memory cache only holds what the writer may still seek back to
+			try(ImageOutputStream stream = new MemoryCacheImageOutputStream(Channels.newOutputStream(out))) {
+				if(!ImageIO.write(getExportImage(tex, ext), ext, stream))
+					throw new IOException("File extension "+ext+" is not supported for export.");
+			}
+			out.commit(onComplete);
+		}
+	}
+	
+	private static BufferedImage getExportImage(PapaTexture tex, String ext) {
+		BufferedImage toWrite = tex.getImage();
+		if(ext.equals("jpeg") || ext.equals("jpg") || ext.equals("bmp") || ext.equals("wbmp")) {
+			toWrite = toModel(toWrite,BufferedImage.TYPE_INT_RGB);
+		}
+		return toWrite;
+	}
+	
+	/**
+	 * Writes files behind the threads that produce them. Each file is opened as an {@link Output} channel which collects
+	 * what is written into chunks and hands every full chunk to an asynchronous write, so no file is held in memory as a
+	 * whole. Producers block while more than the byte limit is waiting to be written, on top of which each open Output holds
+	 * one chunk being filled. A file is written next to its target and only moved over it once committed, an Output closed
+	 * without a commit is discarded.
+	 */
+	public static class AsyncOutput implements Closeable {
+		
+		private static final Set<StandardOpenOption> OPTIONS = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		private static final int CHUNK_SIZE = 1024 * 1024;
+		
+		private final long maxInFlightBytes;
+		private final ExecutorService ioExecutor;
+		private long inFlightBytes = 0;
+		private int openOutputs = 0;
+		
+		public AsyncOutput(long maxInFlightBytes) {
+			this.maxInFlightBytes = maxInFlightBytes;
+			this.ioExecutor = Executors.newFixedThreadPool(2, (r) -> {
+				Thread t = new Thread(r, "Output Writer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		
+		public Output open(Path path) throws IOException {
+			Path temp = path.resolveSibling(path.getFileName()+"."+Long.toHexString(System.nanoTime())+".tmp");
+			AsynchronousFileChannel channel = AsynchronousFileChannel.open(temp, OPTIONS, ioExecutor);
+			synchronized(this) {
+				openOutputs++;
+			}
+			return new Output(channel, temp, path);
+		}
+		
+		private synchronized void acquire(long size) throws InterruptedIOException {
+			try {
+				while(inFlightBytes!=0 && inFlightBytes + size > maxInFlightBytes)
+					wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to write");
+			}
+			inFlightBytes+=size;
+		}
+		
+		private synchronized void release(long size) {
+			inFlightBytes-=size;
+			notifyAll();
+		}
+		
+		private synchronized void closed() {
+			openOutputs--;
+			notifyAll();
+		}
+		
+		public synchronized void awaitIdle() throws InterruptedException {
+			while(openOutputs!=0)
+				wait();
+		}
+		
+		@Override
+		public void close() {
+			boolean interrupted = false;
+			while(true) {
+				try {
+					awaitIdle();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true; // pending writes must still finish before their callbacks can be trusted
+				}
+			}
+			ioExecutor.shutdown();
+			if(interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		public class Output implements WritableByteChannel {
+			private final AsynchronousFileChannel channel;
+			private final Path temp, path;
+			private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			private long position = 0; // where the next chunk goes
+			private int pendingChunks = 0;
+			private IOException error = null;
+			private Consumer<IOException> onComplete = null; // set by commit
+			private boolean open = true, settled = false;
+			
+			private Output(AsynchronousFileChannel channel, Path temp, Path path) {
+				this.channel = channel;
+				this.temp = temp;
+				this.path = path;
+			}
+			
+			@Override
+			public int write(ByteBuffer src) throws IOException {
+				if(!isOpen())
+					throw new ClosedChannelException();
+				int written = src.remaining();
+				while(src.hasRemaining()) {
+					if(!chunk.hasRemaining())
+						submit();
+					int n = Math.min(src.remaining(), chunk.remaining());
+					ByteBuffer part = src.duplicate();
+					part.limit(part.position() + n);
+					chunk.put(part);
+					src.position(src.position() + n);
+				}
+				return written;
+			}
+			
+			private void submit() throws IOException { // blocks while the output stage is full
+				chunk.flip();
+				int size = chunk.remaining();
+				if(size==0) {
+					chunk.clear();
+					return;
+				}
+				synchronized(this) {
+					if(error!=null) // stop producing a file that cannot be written
+						throw error;
+				}
+				acquire(size);
+				synchronized(this) {
+					pendingChunks++;
+				}
+				new ChunkWriter(chunk, position, size).next();
+				position+=size;
+				chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			}
+			
+			public void commit(Consumer<IOException> onComplete) throws IOException { // moves the file over its target once written, then calls onComplete
+				submit();
+				synchronized(this) {
+					if(!open)
+						throw new ClosedChannelException();
+					this.onComplete = onComplete;
+					open = false;
+				}
+				settle();
+			}
+			
+			@Override
+			public synchronized boolean isOpen() {
+				return open;
+			}
+			
+			@Override
+			public void close() { // discards the file unless it was committed
+				synchronized(this) {
+					if(!open)
+						return;
+					open = false;
+				}
+				settle();
+			}
+			
+			private void settle() { // finishes the file once it is committed or discarded and all of its chunks are written
+				IOException error;
+				synchronized(this) {
+					if(open || pendingChunks!=0 || settled)
+						return;
+					settled = true;
+					error = this.error;
+				}
+				try {
+					try {
+						channel.close();
+						if(onComplete!=null && error==null)
+							moveOver();
+					} catch (IOException e) {
+						if(error==null)
+							error = e;
+					}
+					try {
+						Files.deleteIfExists(temp);
+					} catch (IOException e) {
+						if(error==null && onComplete!=null)
+							error = e;
+					}
+					if(onComplete!=null)
+						onComplete.accept(error);
+				} finally {
+					closed(); // after the callback so awaitIdle also waits for it
+				}
+			}
+			
+			private void moveOver() throws IOException {
+				try {
+					Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			
+			private class ChunkWriter implements CompletionHandler<Integer, Void> {
+				private final ByteBuffer data;
+				private final int size;
+				private long position;
+				
+				private ChunkWriter(ByteBuffer data, long position, int size) {
+					this.data = data;
+					this.position = position;
+					this.size = size;
+				}
+				
+				private void next() {
+					try {
+						channel.write(data, position, null, this);
+					} catch (RuntimeException e) {
+						failed(e, null);
+					}
+				}
+				
+				@Override
+				public void completed(Integer written, Void attachment) {
+					position+=written;
+					if(data.hasRemaining())
+						next();
+					else
+						finish(null);
+				}
+				
+				@Override
+				public void failed(Throwable t, Void attachment) {
+					finish(t instanceof IOException ? (IOException) t : new IOException(t));
+				}
+				
+				private void finish(IOException e) {
+					release(size);
+					synchronized(Output.this) {
+						if(error==null)
+							error = e;
+						pendingChunks--;
+					}
+					settle();
+				}
+			}
+		}
+	}
+	
 	private static BufferedImage toModel(BufferedImage input, int model) {
 		BufferedImage tmp = new BufferedImage(input.getWidth(),input.getHeight(),model);
 		int[] data = new int[input.getWidth()*input.getHeight()];
@@ -95,6 +95,9 @@ public class Main {
 		t.setResizeMode(Integer.valueOf(prop.getProperty("PapaOptions.ResizeMode", ""+def.getResizeMode())));
 		
 		PapaFile.setPADirectory(prop.getProperty("PapaFile.PADirectory",null)!=null ? new File(prop.getProperty("PapaFile.PADirectory")) : null);
+		for(String s : prop.getProperty("PapaFile.SearchPaths", "").split(File.pathSeparator))
+			if(!s.isEmpty())
+				PapaFile.addSearchPath(new File(s));
 		
 		editor.papaOptions = new PapaOptions(editor, t.immutable());
 		editor.batchConvert = new BatchConvertDialog(editor, editor.papaOptions);
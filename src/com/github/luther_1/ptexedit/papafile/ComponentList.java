@@ -0,0 +1,174 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * A component list of a PapaFile which keeps an identity index alongside its elements.<br>
+ * Every change goes through {@link #set}, {@link #add(int, PapaComponent)} or {@link #remove(int)}, including those made
+ * through iterators, sub lists and the bulk methods, and updates the index in place. Elements added or removed are also
+ * entered into or dropped from the file's dependency graph.<br>
+ * Each method holds the list's lock. As with {@link java.util.Collections#synchronizedList}, iterating, streaming or
+ * working on a sub list is not atomic and must hold the lock itself if another thread may change the list.
+ */
+class ComponentList<T extends PapaComponent> extends AbstractList<T> implements RandomAccess {
+	
+	private final ArrayList<T> elements = new ArrayList<T>();
+	private final DependencyGraph graph;
+	private final IdentityHashMap<PapaComponent, Integer> identities = new IdentityHashMap<PapaComponent, Integer>(); // component to its first index
+	
+	ComponentList(DependencyGraph graph) {
+		this.graph = graph;
+	}
+	
+	@Override
+	public synchronized T get(int index) {
+		return elements.get(index);
+	}
+	
+	@Override
+	public synchronized int size() {
+		return elements.size();
+	}
+	
+	@Override
+	public synchronized T set(int index, T t) {
+		T old = elements.set(index, t);
+		if(old!=t) {
+			displaced(old, index);
+			placed(t, index);
+			for(int i = index + 1;i<elements.size();i++) // a later occurrence of the old element becomes its first
+				placed(elements.get(i), i);
+			graph.remove(old);
+			graph.update(t);
+		}
+		return old;
+	}
+	
+	@Override
+	public synchronized boolean add(T t) {
+		elements.add(t);
+		modCount++;
+		placed(t, elements.size() - 1);
+		graph.update(t);
+		return true;
+	}
+	
+	@Override
+	public synchronized void add(int index, T t) {
+		elements.add(index, t);
+		modCount++;
+		for(int i = elements.size() - 1;i>index;i--) // from the back so only the first occurrence of an element moves up
+			moved(elements.get(i), i - 1, i);
+		placed(t, index);
+		graph.update(t);
+	}
+	
+	@Override
+	public synchronized T remove(int index) {
+		T t = elements.remove(index);
+		modCount++;
+		displaced(t, index);
+		for(int i = index;i<elements.size();i++) // from the front so only the first occurrence of an element moves down
+			placed(elements.get(i), i);
+		graph.remove(t);
+		return t;
+	}
+	
+	@Override
+	public synchronized boolean removeIf(Predicate<? super T> filter) {
+		boolean removed = elements.removeIf(t -> {
+			if(!filter.test(t))
+				return false;
+			graph.remove(t);
+			return true;
+		});
+		if(removed) {
+			modCount++;
+			reindex();
+		}
+		return removed;
+	}
+	
+	@Override
+	public synchronized void clear() {
+		for(T t : elements)
+			graph.remove(t);
+		elements.clear();
+		modCount++;
+		reindex();
+	}
+	
+	@Override
+	public synchronized int indexOf(Object o) {
+		if(o instanceof PapaComponent) {
+			Integer index = identities.get(o);
+			if(index!=null)
+				return index;
+		}
+		return elements.indexOf(o); // components which define equals may match an element other than themselves
+	}
+	
+	@Override
+	public synchronized int lastIndexOf(Object o) {
+		return elements.lastIndexOf(o);
+	}
+	
+	synchronized int indexOfReference(PapaComponent comp) {
+		Integer index = identities.get(comp);
+		return index==null ? -1 : index;
+	}
+	
+	void placed(T t, int index) { // index becomes the first occurrence unless an earlier one is known
+		placeAt(identities, t, index);
+	}
+	
+	void displaced(T t, int index) {
+		identities.remove(t, index);
+	}
+	
+	void moved(T t, int from, int to) {
+		shiftTo(identities, t, from, to);
+	}
+	
+	void reindex() {
+		identities.clear();
+		for(int i = 0;i<elements.size();i++)
+			identities.putIfAbsent(elements.get(i), i);
+	}
+	
+	static <K> void shiftTo(Map<K, Integer> map, K key, int from, int to) {
+		Integer current = map.get(key);
+		if(current!=null && current==from)
+			map.put(key, to);
+	}
+	
+	static <K> void placeAt(Map<K, Integer> map, K key, int index) {
+		Integer current = map.get(key);
+		if(current==null || current > index)
+			map.put(key, index);
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * The references between the components of one PapaFile, kept in both directions so that the dependents of a component
+ * can be found without asking every other component. Edges come from {@link PapaComponent#getReferences()} and are
+ * refreshed whenever a component is added, removed or changes what it refers to.
+ */
+class DependencyGraph {
+	
+	private static final PapaComponent[] NONE = new PapaComponent[0];
+	
+	private final IdentityHashMap<PapaComponent, PapaComponent[]> references = new IdentityHashMap<PapaComponent, PapaComponent[]>();
+	private final IdentityHashMap<PapaComponent, LinkedHashSet<PapaComponent>> referrers = new IdentityHashMap<PapaComponent, LinkedHashSet<PapaComponent>>();
+	
+	synchronized void update(PapaComponent comp) {
+		remove(comp);
+		PapaComponent[] refs = comp.getReferences();
+		if(refs.length==0)
+			return;
+		references.put(comp, refs);
+		for(PapaComponent r : refs)
+			if(r!=null)
+				referrers.computeIfAbsent(r, k -> new LinkedHashSet<PapaComponent>()).add(comp);
+	}
+	
+	synchronized void remove(PapaComponent comp) {
+		PapaComponent[] refs = references.remove(comp);
+		if(refs==null)
+			return;
+		for(PapaComponent r : refs) {
+			LinkedHashSet<PapaComponent> set = referrers.get(r);
+			if(set==null)
+				continue;
+			set.remove(comp);
+			if(set.isEmpty())
+				referrers.remove(r);
+		}
+	}
+	
+	synchronized PapaComponent[] getReferrers(PapaComponent comp) {
+		LinkedHashSet<PapaComponent> set = referrers.get(comp);
+		return set==null ? NONE : set.toArray(new PapaComponent[set.size()]);
+	}
+	
+	synchronized void clear() {
+		references.clear();
+		referrers.clear();
+	}
+}
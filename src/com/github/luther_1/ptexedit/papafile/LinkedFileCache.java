@@ -0,0 +1,141 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A process wide cache of parsed linked papa files, shared by every PapaFile that links to them.
+ * The cached files are never handed out, every parent gets a copy sharing their texture data and decoded images.
+ * Entries are keyed by canonical path, evicted least recently used first once the budget is exceeded,
+ * and reloaded if the file's modification time or size changes. Only files holding nothing but textures are cached.<br>
+ * The budget counts the size of the cached files on disk. Decoded images are not counted, they are created lazily and
+ * stay alive for as long as any parent's copy does, whether or not the entry is still cached.
+ */
+class LinkedFileCache {
+	
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<Path, Entry>(16, 0.75f, true);
+	private long budget;
+	private long usedBytes = 0; // file sizes of the cached entries
+	
+	LinkedFileCache(long budget) {
+		this.budget = budget;
+	}
+	
+	PapaFile read(Path path) throws IOException {
+		Path key;
+		BasicFileAttributes attributes;
+		try {
+			key = path.toRealPath();
+			attributes = Files.readAttributes(key, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException("File "+path+" not found.");
+		}
+		FileTime modified = attributes.lastModifiedTime();
+		long size = attributes.size();
+		
+		PapaFile file = null;
+		synchronized(this) {
+			Entry e = entries.get(key);
+			if(e!=null) {
+				file = e.file.get();
+				if(file==null || !e.modified.equals(modified) || e.size != size) {
+					remove(key, e); // stale or reclaimed by the garbage collector
+					file = null;
+				}
+			}
+		}
+		if(file!=null)
+			return file.copyTextureFile(path.toFile());
+		
+		byte[] data = Files.readAllBytes(key); // read and parsed outside the lock so other files can be served meanwhile
+		file = new PapaFile(ByteBuffer.wrap(data), path.toFile(), PapaFile.ALL);
+		if(data.length != size || !file.isTextureFile())
+			return file; // changed while it was being read or not shareable, the parsed file is used as is
+		
+		synchronized(this) {
+			if(size <= budget) {
+				Entry old = entries.put(key, new Entry(file, modified, size));
+				if(old!=null)
+					usedBytes -= old.size;
+				usedBytes += size;
+				trim();
+			}
+		}
+		return file.copyTextureFile(path.toFile());
+	}
+	
+	synchronized void setBudget(long budget) {
+		this.budget = Math.max(budget, 0);
+		trim();
+	}
+	
+	synchronized long getBudget() {
+		return budget;
+	}
+	
+	synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+	}
+	
+	private void remove(Path key, Entry e) {
+		entries.remove(key);
+		usedBytes -= e.size;
+	}
+	
+	private void trim() {
+		Iterator<Entry> it = entries.values().iterator();
+		while(it.hasNext()) { // entries the collector reclaimed no longer hold any memory
+			Entry e = it.next();
+			if(e.file.get()==null) {
+				usedBytes -= e.size;
+				it.remove();
+			}
+		}
+		it = entries.values().iterator();
+		while(usedBytes > budget && it.hasNext()) { // iteration order is least recently used first
+			usedBytes -= it.next().size;
+			it.remove();
+		}
+	}
+	
+	private static class Entry {
+		private final SoftReference<PapaFile> file; // lets the collector reclaim entries before the budget is reached
+		private final FileTime modified;
+		private final long size;
+		
+		private Entry(PapaFile file, FileTime modified, long size) {
+			this.file = new SoftReference<PapaFile>(file);
+			this.modified = modified;
+			this.size = size;
+		}
+	}
+}
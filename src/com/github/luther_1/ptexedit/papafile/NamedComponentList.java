@@ -0,0 +1,80 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.util.HashMap;
+import java.util.function.Function;
+
+/**
+ * A {@link ComponentList} which also finds its elements by name. The name index follows the list like the identity
+ * index does, but a name can change without the list knowing, so {@link #invalidateNames()} must be called when it
+ * does and the index is rebuilt on the next lookup.
+ */
+class NamedComponentList<T extends PapaComponent> extends ComponentList<T> {
+	
+	private final Function<T, String> naming;
+	private HashMap<String, Integer> names = new HashMap<String, Integer>(); // name to the first index holding it, null if stale
+	
+	NamedComponentList(Function<T, String> naming, DependencyGraph graph) {
+		super(graph);
+		this.naming = naming;
+	}
+	
+	synchronized int indexOfName(String name) {
+		if(names==null) {
+			names = new HashMap<String, Integer>();
+			for(int i = 0;i<size();i++)
+				names.putIfAbsent(naming.apply(get(i)), i);
+		}
+		Integer index = names.get(name);
+		return index==null ? -1 : index;
+	}
+	
+	synchronized void invalidateNames() { // call when the name of an element changes
+		names = null;
+	}
+	
+	@Override
+	void placed(T t, int index) {
+		super.placed(t, index);
+		if(names!=null)
+			placeAt(names, naming.apply(t), index);
+	}
+	
+	@Override
+	void displaced(T t, int index) {
+		super.displaced(t, index);
+		if(names!=null)
+			names.remove(naming.apply(t), index);
+	}
+	
+	@Override
+	void moved(T t, int from, int to) {
+		super.moved(t, from, to);
+		if(names!=null)
+			shiftTo(names, naming.apply(t), from, to);
+	}
+	
+	@Override
+	void reindex() {
+		super.reindex();
+		names = null;
+	}
+}
@@ -2,48 +2,60 @@ package com.github.luther_1.ptexedit.papafile;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.github.luther_1.ptexedit.papafile.PapaFile.BuildNotification;
 
 public class PapaAnimation extends PapaComponent {
-
+	
+	private static final int TRANSFORM_FLOATS = 7;
 	private PapaFile parent;
 	private String name;
 	private int fpsNumerator;
 	private int fpsDenominator;
 	private float fps;
 	private String[] boneMap;
-	private PapaFrame[] frames;
+	private HashMap<String, Integer> boneIndices = new HashMap<String, Integer>(); // bone name to its first index in boneMap
+	private int numFrames;
+	private float[] transforms; // location xyz and rotation xyzw for every bone of every frame, frame major
 	private int framePosition;
+	private byte[] originalTransforms; // the frames as they were read, written back as is until the animation is modified. null once modified.
 	
 	public PapaAnimation(String name, short numBones, int numFrames, int fpsNumerator, int fpsDenominator, byte[] boneData, byte[] transformData, PapaFile p) {
+		this(name, numBones, numFrames, fpsNumerator, fpsDenominator, ByteBuffer.wrap(boneData), ByteBuffer.wrap(transformData), p);
+	}
+	
+	PapaAnimation(String name, short numBones, int numFrames, int fpsNumerator, int fpsDenominator, ByteBuffer boneBuf, ByteBuffer transformBuf, PapaFile p) {
 		this.name=name;
 		this.parent = p;
 		this.fpsNumerator=fpsNumerator;
 		this.fpsDenominator=fpsDenominator;
 		this.fps = (float)fpsNumerator / (float)fpsDenominator;
-		this.frames = new PapaFrame[numFrames];
+		this.numFrames = numFrames;
 		
-		ByteBuffer boneBuf = ByteBuffer.wrap(boneData);
 		boneBuf.order(ByteOrder.LITTLE_ENDIAN);
-		
-		ByteBuffer transformBuf = ByteBuffer.wrap(transformData);
 		transformBuf.order(ByteOrder.LITTLE_ENDIAN);
 		
+		originalTransforms = toArray(transformBuf);
 		decodeAll(numBones, numFrames, boneBuf, transformBuf);
 	}
+	
+	public boolean isModified() {
+		return originalTransforms==null;
+	}
+	
+	public void markModified() {
+		originalTransforms = null;
+	}
 
 	private void decodeAll(short numBones, int numFrames, ByteBuffer boneBuf, ByteBuffer transformBuf) {
 		boneMap = decodeBones(numBones, boneBuf);
-		for(int f = 0;f<numFrames;f++) {
-			PapaAnimationTransform[] transforms = new PapaAnimationTransform[numBones];
-			for(int b = 0;b<numBones;b++) {
-				transforms[b] = new PapaAnimationTransform(transformBuf);
-			}
-			this.frames[f] = new PapaFrame(transforms, this);
-		}
-			
+		for(int i = 0;i<boneMap.length;i++)
+			boneIndices.putIfAbsent(boneMap[i], i);
+		transforms = new float[numFrames * numBones * TRANSFORM_FLOATS];
+		transformBuf.asFloatBuffer().get(transforms);
 	}
 
 	private String[] decodeBones(short numBones, ByteBuffer boneBuf) {
@@ -53,33 +65,73 @@ public class PapaAnimation extends PapaComponent {
 		return bones;
 	}
 	
-	private static class PapaAnimationTransform {
-		private float[] location = new float[3];
-		private float[] rotation = new float[4];
-		
-		private PapaAnimationTransform(ByteBuffer buf) {
-			for(int i =0;i<3;i++)
-				location[i] = buf.getFloat();
-			for(int i =0;i<4;i++)
-				rotation[i] = buf.getFloat();
-		}
-		
-		public float[] getLocation() {
-			return this.location;
-		}
-		
-		public float[] getRotation() {
-			return this.rotation;
-		}
+	public int getNumFrames() {
+		return numFrames;
 	}
 	
-	public static class PapaFrame extends PapaSubcomponent{
-		//private PapaAnimation animation;
-		private PapaAnimationTransform[] transforms;
+	public int getNumBones() {
+		return boneMap.length;
+	}
+	
+	public String getBoneName(int bone) {
+		return boneMap[bone];
+	}
+	
+	public int getBoneIndex(String name) {
+		Integer index = boneIndices.get(name);
+		return index==null ? -1 : index;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	private int transformIndex(int frame, int bone) {
+		if(frame < 0 || frame >= numFrames || bone < 0 || bone >= boneMap.length)
+			throw new IndexOutOfBoundsException("Frame "+frame+", bone "+bone+" is out of bounds for "+numFrames+" frames of "+boneMap.length+" bones");
+		return (frame * boneMap.length + bone) * TRANSFORM_FLOATS;
+	}
+	
+	private int frameIndex(int frame) {
+		if(frame < 0 || frame >= numFrames)
+			throw new IndexOutOfBoundsException("Frame "+frame+" is out of bounds for "+numFrames+" frames");
+		return frame * boneMap.length * TRANSFORM_FLOATS;
+	}
+	
+	public void getTransform(int frame, int bone, float[] dst, int offset) { // location xyz followed by rotation xyzw
+		System.arraycopy(transforms, transformIndex(frame, bone), dst, offset, TRANSFORM_FLOATS);
+	}
+	
+	public void setTransform(int frame, int bone, float[] src, int offset) {
+		System.arraycopy(src, offset, transforms, transformIndex(frame, bone), TRANSFORM_FLOATS);
+		markModified();
+	}
+	
+	public void getFrameTransforms(int frame, float[] dst, int offset) { // every bone of one frame, in bone order
+		System.arraycopy(transforms, frameIndex(frame), dst, offset, boneMap.length * TRANSFORM_FLOATS);
+	}
+	
+	public void setFrameTransforms(int frame, float[] src, int offset) {
+		System.arraycopy(src, offset, transforms, frameIndex(frame), boneMap.length * TRANSFORM_FLOATS);
+		markModified();
+	}
+	
+	public FloatBuffer getTransforms() { // frames * bones * 7 floats, frame major
+		return FloatBuffer.wrap(transforms).asReadOnlyBuffer();
+	}
+	
+	public PapaFrame getFrame(int frame) {
+		frameIndex(frame);
+		return new PapaFrame(this, frame);
+	}
+	
+	public static class PapaFrame extends PapaSubcomponent{ // a view of one frame in the animation's transform array
+		private PapaAnimation animation;
+		private final int frame;
 		
-		private PapaFrame(PapaAnimationTransform[] transforms, PapaAnimation animation) {
-			//this.animation = animation;
-			this.transforms = transforms;
+		private PapaFrame(PapaAnimation animation, int frame) {
+			this.animation = animation;
+			this.frame = frame;
 		}
 
 		@Override
@@ -94,7 +146,7 @@ public class PapaAnimation extends PapaComponent {
 
 		@Override
 		protected int bodySize() {
-			return 28*transforms.length;
+			return 4 * TRANSFORM_FLOATS * animation.boneMap.length;
 		}
 
 		@Override
@@ -106,12 +158,8 @@ public class PapaAnimation extends PapaComponent {
 			byte[] dataBytes = new byte[bodySize()];
 			super.data = ByteBuffer.wrap(dataBytes);
 			super.data.order(ByteOrder.LITTLE_ENDIAN);
-			for(PapaAnimationTransform t : transforms) {
-				for(float f : t.getLocation())
-					super.data.putFloat(f);
-				for(float f : t.getRotation())
-					super.data.putFloat(f);
-			}
+			int length = animation.boneMap.length * TRANSFORM_FLOATS;
+			super.data.asFloatBuffer().put(animation.transforms, frame * length, length);
 		}
 
 		@Override
@@ -129,8 +177,7 @@ public class PapaAnimation extends PapaComponent {
 
 		@Override
 		public void flush() {
-			//animation = null;
-			transforms = null;
+			animation = null;
 		}
 	}
 	
@@ -154,10 +201,7 @@ public class PapaAnimation extends PapaComponent {
 
 	@Override
 	protected int bodySize() {
-		int size = 0;
-		for(PapaFrame f : frames)
-			size+=f.componentSize();
-		return ceilEight(size) + 2 * boneMap.length;
+		return ceilEight(2 * boneMap.length) + 4 * transforms.length;
 	}
 
 	@Override
@@ -176,15 +220,15 @@ public class PapaAnimation extends PapaComponent {
 		data.position(ceilEight(data.position()));
 		framePosition = data.position();
 		
-		for(PapaFrame f : frames) {
-			f.build();
-			data.put(f.getDataBytes());
-		}
+		if(originalTransforms!=null)
+			data.put(originalTransforms); // bone names are always rewritten since their string indices can change
+		else
+			data.asFloatBuffer().put(transforms);
 		
 		
 		header.putShort((short) parent.getOrMakeString(name));
 		header.putShort((short) boneMap.length);
-		header.putInt(frames.length);
+		header.putInt(numFrames);
 		header.putInt(fpsNumerator);
 		header.putInt(fpsDenominator);
 	}
@@ -195,7 +239,7 @@ public class PapaAnimation extends PapaComponent {
 			header.putLong(-1);
 		else
 			header.putLong(offset);
-		if(frames.length==0)
+		if(numFrames==0)
 			header.putLong(-1);
 		else
 			header.putLong(offset + framePosition);
@@ -271,11 +315,10 @@ public class PapaAnimation extends PapaComponent {
 
 	@Override
 	public void flush() {
-		for(PapaFrame f : frames)
-			f.flush();
 		parent = null;
-		frames = null;
+		transforms = null;
 		boneMap = null;
+		originalTransforms = null;
 	}
 
 }
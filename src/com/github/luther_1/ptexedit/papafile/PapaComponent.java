@@ -38,6 +38,12 @@ public abstract class PapaComponent {
 		return ceilEight(value + 1);
 	}
 	
+	protected static byte[] toArray(ByteBuffer buf) { // components outlive the buffer they were read from, so they need their own copy of the data
+		byte[] data = new byte[buf.remaining()];
+		buf.duplicate().get(data);
+		return data;
+	}
+	
 	protected abstract BuildNotification[] validate();
 	
 	protected abstract int headerSize();
@@ -60,6 +66,10 @@ public abstract class PapaComponent {
 		return data.array();
 	}
 	
+	protected Object getBodySource() { // the array the body is written from as is, null if the body is encoded on every build
+		return null;
+	}
+	
 	public void overwrite(PapaComponent other) {
 		if(other.getClass() != this.getClass())
 			throw new IllegalArgumentException("Cannot overwrite "+this.getClass().getName()+" with "+other.getClass().getName());
@@ -70,6 +80,10 @@ public abstract class PapaComponent {
 	
 	protected abstract boolean isDependentOn(PapaComponent other);
 	
+	protected PapaComponent[] getReferences() { // the components in the same file this one points to, without creating any strings
+		return new PapaComponent[0];
+	}
+	
 	public abstract void detach();
 	
 	public void attach(PapaFile newParent) {
@@ -24,8 +24,15 @@ import java.io.*;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
 
 import javax.imageio.ImageIO;
 
@@ -39,23 +46,29 @@ public class PapaFile extends PapaComponent{
 	private long 	fileSize;
 
 	private ArrayList<PapaString> strings = new ArrayList<PapaString>();
-	private ArrayList<PapaTexture> textures = new ArrayList<PapaTexture>();
-	private ArrayList<PapaVertexBuffer> vBuffers = new ArrayList<PapaVertexBuffer>();
-	private ArrayList<PapaIndexBuffer> iBuffers = new ArrayList<PapaIndexBuffer>();
-	private ArrayList<PapaMaterial> materials = new ArrayList<PapaMaterial>();
-	private ArrayList<PapaMesh> meshes = new ArrayList<PapaMesh>();
-	private ArrayList<PapaSkeleton> skeletons = new ArrayList<PapaSkeleton>();
-	private ArrayList<PapaModel> models = new ArrayList<PapaModel>();
-	private ArrayList<PapaAnimation> animations = new ArrayList<PapaAnimation>();
+	private HashMap<String, Integer> stringIndices = new HashMap<String, Integer>(); // value to the first index in strings holding it
+	private boolean duplicateStrings = false; // whether a value may be held by more than one string
+	private final DependencyGraph dependencyGraph = new DependencyGraph(); // references between the components below
+	private NamedComponentList<PapaTexture> textures = new NamedComponentList<PapaTexture>(PapaTexture::getName, dependencyGraph);
+	private ComponentList<PapaVertexBuffer> vBuffers = new ComponentList<PapaVertexBuffer>(dependencyGraph);
+	private ComponentList<PapaIndexBuffer> iBuffers = new ComponentList<PapaIndexBuffer>(dependencyGraph);
+	private ComponentList<PapaMaterial> materials = new ComponentList<PapaMaterial>(dependencyGraph);
+	private ComponentList<PapaMesh> meshes = new ComponentList<PapaMesh>(dependencyGraph);
+	private ComponentList<PapaSkeleton> skeletons = new ComponentList<PapaSkeleton>(dependencyGraph);
+	private ComponentList<PapaModel> models = new ComponentList<PapaModel>(dependencyGraph);
+	private ComponentList<PapaAnimation> animations = new ComponentList<PapaAnimation>(dependencyGraph);
 	
 	private HashMap<String, PapaFile> linkedFiles = new HashMap<String, PapaFile>();
 	
 	private byte[] fileBytes = null;
 	
 	private static final boolean ERROR_IF_NOT_FOUND = false;
+	private static final LinkedFileCache LINKED_FILE_CACHE = new LinkedFileCache(256 * 1024 * 1024); // in file bytes, decoded images are not counted
+	private static final ThreadLocal<Boolean> IS_LINKED_FILE_LOADER = ThreadLocal.withInitial(() -> false);
+	private static final ThreadPoolExecutor LINKED_FILE_LOADER = createLinkedFileLoader();
 	
 	@SuppressWarnings("unchecked")
-	private ArrayList<? extends PapaComponent>[] components = (ArrayList<? extends PapaComponent>[]) new ArrayList<?>[] {strings,textures,vBuffers,iBuffers, materials, 
+	private List<? extends PapaComponent>[] components = (List<? extends PapaComponent>[]) new List<?>[] {strings,textures,vBuffers,iBuffers, materials, 
 																														meshes,skeletons, models, animations};
 	private static final String[] COMPONENT_NAMES = new String[] {	"Strings","Textures","Vertex Buffers","Index Buffers","Materials",
 																	"Meshes", "Skeletons", "Models", "Animations"};
@@ -72,10 +85,13 @@ public class PapaFile extends PapaComponent{
 	public static final int MODEL = 	0b010000000;
 	public static final int ANIMATION = 0b100000000;
 	public static final int ALL = 		0b111111111;
+	public static final int PARALLEL =	0b1000000000; // decode independent components on the common fork/join pool
 	private static final int HEADER_SIZE = 0x68;
+	private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0).asReadOnlyBuffer();
+	private static final byte[] PADDING = new byte[8];
 	
 	private static File PA_ROOT_DIR = null;
-	private static String PA_ROOT_DIR_STRING = null;
+	private static final SearchPathIndex SEARCH_PATHS = new SearchPathIndex();
 	
 	private int 	signature;
 	private int 	minorVersion = 0;
@@ -106,6 +122,11 @@ public class PapaFile extends PapaComponent{
 	
 	
 	private File fileLocation;
+	private Path syncedPath = null; // the file this was last read from or written to, bodies already there are not written again
+	private long syncedSize = -1;
+	private FileTime syncedModified = null;
+	private Object syncedKey = null;
+	private WeakHashMap<Object, Long> syncedBodies = new WeakHashMap<Object, Long>(); // body source to its offset in syncedPath
 	private String 	fileName = "Unknown";
 	private String 	filePath = "Unknown";
 	private String	relativePath = "Unknown";
@@ -132,9 +153,42 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	private ByteBuffer in;
+	private LinkedHashMap<String, Future<PapaFile>> pendingLinkedFiles = null; // linked files still loading while this file is parsed
+	private ArrayList<ForkJoinTask<?>> pendingDecodes = null; // non null while components are decoded in parallel
+	
+	private static ThreadPoolExecutor createLinkedFileLoader() {
+		int threads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), (r) -> {
+			Thread t = new Thread(() -> {
+				IS_LINKED_FILE_LOADER.set(true);
+				r.run();
+			}, "Linked file loader");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	private static PapaFile loadLinkedFile(String name) throws IOException {
+		Path path = resolveLinkedFile(name);
+		try {
+			return LINKED_FILE_CACHE.read(path); // every parent gets its own copy, only the texture contents are shared
+		} catch (FileNotFoundException e) { // removed since the search paths were indexed
+			SEARCH_PATHS.forget(name);
+			return LINKED_FILE_CACHE.read(resolveLinkedFile(name));
+		}
+	}
+	
+	private static Path resolveLinkedFile(String name) throws IOException {
+		File f = SEARCH_PATHS.resolve(name);
+		if(f==null)
+			throw new FileNotFoundException("File "+name+" not found in any search path.");
+		return f.toPath();
+	}
 	
-	private static PapaFile readLinkedFile(String fullPath, PapaFile parent) throws IOException{
-		PapaFile p = new PapaFile(fullPath);
+	private static PapaFile readLinkedFile(String name, PapaFile parent) throws IOException{
+		PapaFile p = loadLinkedFile(name);
 		p.attach(parent);
 		return p;
 	}
@@ -155,17 +209,32 @@ public class PapaFile extends PapaComponent{
 		fileSize = calcFileSize();
 	}
 	
-	private InputStream getStream(String path) throws IOException {
-		File f = new File(path);
-		return new FileInputStream(f);
+	private static Path toPath(String path) throws IOException {
+		try {
+			return new File(path).toPath();
+		} catch (InvalidPathException e) {
+			throw new IOException("Invalid path: "+path);
+		}
 	}
 	
 	public PapaFile(String path, int flags) throws IOException {
-		instantiate(getStream(path), path, flags);
+		instantiate(toPath(path), flags);
 	}
 
 	public PapaFile(String path) throws IOException {
-		instantiate(getStream(path), path, ALL);
+		instantiate(toPath(path), ALL);
+	}
+	
+	public PapaFile(Path path, int flags) throws IOException {
+		instantiate(path, flags);
+	}
+	
+	public PapaFile(Path path) throws IOException {
+		instantiate(path, ALL);
+	}
+	
+	PapaFile(ByteBuffer data, File location, int flags) throws IOException { // data must start at the papa header
+		parse(data, location, flags);
 	}
 	
 	public PapaFile(InputStream stream, String path, int flags) throws IOException {
@@ -198,9 +267,8 @@ public class PapaFile extends PapaComponent{
 		filePath = loc != -1 ? path.substring(0,loc) : path;
 		loc = fileName.lastIndexOf(".");
 		isPapa = loc != -1 && fileName.substring(loc).equals(".papa");
-		if(PA_ROOT_DIR != null && path.startsWith(PA_ROOT_DIR_STRING))
-			relativePath = path.substring(PA_ROOT_DIR_STRING.length());
-		else
+		relativePath = SEARCH_PATHS.relativise(path);
+		if(relativePath==null)
 			relativePath = "Unknown";
 		if(isLinked)
 			parentFile.updateLinkedFile(this, relativePath);
@@ -215,7 +283,7 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	public boolean relativeFileNameAvailable() {
-		return PA_ROOT_DIR !=null && !relativePath.equals("Unknown");
+		return !SEARCH_PATHS.isEmpty() && !relativePath.equals("Unknown");
 	}
 	
 	public String getRelativeFileName() {
@@ -354,9 +422,9 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	public PapaTexture getTexture(String name) {
-		for(int i = 0; i< textures.size();i++)
-			if(textures.get(i).getName().equals(name))
-				return textures.get(i);
+		int index = textures.indexOfName(name);
+		if(index!=-1)
+			return textures.get(index);
 		throw new IllegalArgumentException("Texture \""+name+"\" not found.");
 	}
 	
@@ -380,7 +448,7 @@ public class PapaFile extends PapaComponent{
 			detach();
 		}
 		
-		int index = indexOfReference(textures, tex);
+		int index = textures.indexOfReference(tex);
 		if(index==-1)
 			throw new IllegalArgumentException("Cannot remove texture which does not belong to this papaFile");
 		textures.remove(index);
@@ -396,11 +464,13 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	
-	private int indexOfReference(ArrayList<? extends PapaComponent> list, PapaComponent comp) {
-		for(int i =0;i<list.size();i++)
-			if(list.get(i)==comp)
-				return i;
-		return -1;
+	void textureRenamed() {
+		if(textures!=null)
+			textures.invalidateNames();
+	}
+	
+	void referencesChanged(PapaComponent comp) {
+		dependencyGraph.update(comp);
 	}
 	
 	void addVertexBuffer(PapaVertexBuffer buf) {
@@ -466,8 +536,8 @@ public class PapaFile extends PapaComponent{
 		removeComponent(animations, animation, "animation");
 	}
 	
-	private void removeComponent(ArrayList<? extends PapaComponent> list, PapaComponent comp, String componentType) {
-		int index = indexOfReference(list,comp);
+	private void removeComponent(ComponentList<? extends PapaComponent> list, PapaComponent comp, String componentType) {
+		int index = list.indexOfReference(comp);
 		if(index==-1)
 			throw new IllegalArgumentException("Cannot remove "+componentType+" which does not belong to this papaFile");
 		list.remove(index);
@@ -531,7 +601,7 @@ public class PapaFile extends PapaComponent{
 		return animations.get(index);
 	}
 	
-	private void checkAccess(ArrayList<? extends PapaComponent> list, int index) {
+	private void checkAccess(List<? extends PapaComponent> list, int index) {
 		if(index <-1 || index >= list.size())
 			throw new IllegalArgumentException("Invalid component array access.");
 	}
@@ -539,9 +609,9 @@ public class PapaFile extends PapaComponent{
 	int getStringIndex(String string) {  // it is unwise to use this method directly unless you know what you're doing. Strings are highly volatile.
 		if(strings==null)
 			return -1;
-		for(int i =0;i<strings.size();i++)
-			if(strings.get(i).getValue().equals(string))
-				return i;
+		Integer index = stringIndices.get(string);
+		if(index!=null)
+			return index;
 		throw new IllegalArgumentException("PapaComponent "+string+" does not belong to this PapaFile ("+toString()+")");
 	}
 	int getTextureIndex(PapaTexture tex) {
@@ -568,12 +638,12 @@ public class PapaFile extends PapaComponent{
 	int getAnimationIndex(PapaAnimation anim) {
 		return getComponentIndex(animations, anim);
 	}
-	private int getComponentIndex(ArrayList<? extends PapaComponent> list, PapaComponent comp) {
+	private int getComponentIndex(ComponentList<? extends PapaComponent> list, PapaComponent comp) {
 		if(comp==null)
 			return -1;
-		for(int i =0;i<list.size();i++)
-			if(list.get(i)==comp)
-				return i;
+		int index = list.indexOfReference(comp);
+		if(index!=-1)
+			return index;
 		throw new IllegalArgumentException("PapaComponent "+comp+" does not belong to this PapaFile ("+toString()+")");
 	}
 
@@ -638,8 +708,7 @@ public class PapaFile extends PapaComponent{
 		for(PapaTexture t : textures)
 			if(t.isLinked()) {
 				try {
-					String fullPath = PapaFile.PA_ROOT_DIR + t.getName();
-					PapaFile p = openLinkedPapaFile(fullPath);
+					PapaFile p = openLinkedPapaFile(t.getName());
 					if(p!=null)
 						addToLinkedFiles(t.getName(), p);
 				} catch(IOException e) {};
@@ -648,18 +717,17 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	private void removeDependencies(PapaFile other) {
-		boolean change = false;
-		for(int i = 0; i<textures.size();i++) {
-			PapaTexture t = textures.get(i);
-			if(!t.isLinked())
-				continue;
-			if(t.linkValid() && t.getLinkedTexture().getParent() == other) {
-				textures.remove(i--);
-				change = true;
-				t.flush();
+		ArrayList<PapaTexture> removed = new ArrayList<PapaTexture>();
+		textures.removeIf((t) -> {
+			if(t.isLinked() && t.linkValid() && t.getLinkedTexture().getParent() == other) {
+				removed.add(t);
+				return true;
 			}
-		}
-		if(change)
+			return false;
+		});
+		for(PapaTexture t : removed)
+			t.flush();
+		if(removed.size()!=0)
 			recalculateFileSize();
 	}
 	
@@ -684,6 +752,21 @@ public class PapaFile extends PapaComponent{
 		return parentFile.getTopParentFileHelper();
 	}
 	
+	private void instantiate(Path path, int flags) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("File is too large to be read.");
+			// the mapping remains valid after the channel is closed. Every component copies its body, so nothing refers to the mapping once
+			// parse returns and it is released by the next collection. Until then writeTo never truncates the file, it either patches it
+			// and clears a shorter tail or writes a new file and moves it over
+			parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), path.toFile(), flags);
+			markSynced(path);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException("File "+path+" not found.");
+		}
+	}
+	
 	private void instantiate(InputStream stream, String path, int flags) throws IOException {
 		try {
 			File f = new File(path);
@@ -691,10 +774,17 @@ public class PapaFile extends PapaComponent{
 				throw new IOException("File "+f.getPath()+" not found.");
 			if(f.isDirectory())
 				throw new IOException("File "+f.getPath()+" is a directory.");*/
+			parse(ByteBuffer.wrap(readStream(stream)), f, flags);
+		} finally {
+			stream.close();
+		}
+	}
+	
+	private void parse(ByteBuffer fileData, File f, int flags) throws IOException {
+		try {
 			setFileLocation(f);
-		
-			byte[] fileData = readStream(stream);
-			in = ByteBuffer.wrap(fileData);
+			
+			in = fileData;
 			in.order(ByteOrder.LITTLE_ENDIAN);
 			
 			fileSize = in.limit();
@@ -705,22 +795,30 @@ public class PapaFile extends PapaComponent{
 			
 			if((STRING & flags) == STRING)
 				readStrings(in);
+			
+			if((PARALLEL & flags) == PARALLEL)
+				pendingDecodes = new ArrayList<ForkJoinTask<?>>();
+			// these only depend on strings, in parallel they are all decoded together
 			if((TEXTURE & flags) == TEXTURE)
 				readTextures(in);
 			if((VBUF & flags) == VBUF)
 				readVBuffers(in);
 			if((IBUF & flags) == IBUF)
 				readIBuffers(in);
+			if((SKELETON & flags) == SKELETON)
+				readSkeletons(in);
+			if((ANIMATION & flags) == ANIMATION)
+				readAnimations(in);
+			joinDecodes();
+			
 			if((MATERIAL & flags) == MATERIAL)
 				readMaterials(in);
 			if((MESH & flags) == MESH)
 				readMeshes(in);
-			if((SKELETON & flags) == SKELETON)
-				readSkeletons(in);
 			if((MODEL & flags) == MODEL)
 				readModels(in);
-			if((ANIMATION & flags) == ANIMATION)
-				readAnimations(in);
+			
+			joinLinkedFiles();
 		} catch (IOException e) {
 			throw e;
 		} catch (BufferUnderflowException b) {
@@ -728,12 +826,70 @@ public class PapaFile extends PapaComponent{
 		} catch(IllegalArgumentException i) {
 			throw new IOException("File data could not be parsed.");
 		} finally {
-			in.clear();
+			abandonDecodes(); // a failed read must not leave decoders adding to this file after it returns
 			in = null;
-			stream.close();
+			pendingLinkedFiles = null;
+			pendingDecodes = null;
 		}
 	}
 	
+	private interface ComponentDecoder<T extends PapaComponent> {
+		T decode() throws IOException;
+	}
+	
+	private <T extends PapaComponent> void decodeComponents(List<T> list, ArrayList<ComponentDecoder<T>> decoders) throws IOException {
+		if(pendingDecodes==null) {
+			for(ComponentDecoder<T> d : decoders)
+				list.add(d.decode());
+			return;
+		}
+		pendingDecodes.add(ForkJoinPool.commonPool().submit(() -> {
+			ArrayList<ForkJoinTask<T>> tasks = new ArrayList<ForkJoinTask<T>>();
+			for(ComponentDecoder<T> d : decoders)
+				tasks.add(ForkJoinTask.adapt(() -> d.decode()));
+			ForkJoinTask.invokeAll(tasks);
+			for(ForkJoinTask<T> t : tasks) // only this task touches the list until it is joined
+				list.add(t.join());
+		}));
+	}
+	
+	private void joinDecodes() throws IOException {
+		if(pendingDecodes==null)
+			return;
+		try {
+			for(ForkJoinTask<?> t : pendingDecodes)
+				t.join();
+			pendingDecodes.clear();
+		} catch (RuntimeException e) { // report the same failure the sequential path would have thrown
+			for(Throwable cause = e; cause!=null; cause = cause.getCause()) {
+				if(cause instanceof IOException)
+					throw (IOException) cause;
+				if(cause instanceof BufferUnderflowException || cause instanceof IllegalArgumentException)
+					throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+	
+	private void abandonDecodes() { // cancels the decodes that have not started and waits for the rest
+		if(pendingDecodes==null)
+			return;
+		for(ForkJoinTask<?> t : pendingDecodes)
+			t.cancel(false);
+		for(ForkJoinTask<?> t : pendingDecodes)
+			t.quietlyJoin();
+		pendingDecodes.clear();
+	}
+	
+	private ByteBuffer slice(ByteBuffer in, long offset, int size) { // a view of one table or body, components decode from it or copy out what they keep
+		ByteBuffer b = in.duplicate();
+		b.position((int) offset);
+		b.limit((int) offset + size);
+		b = b.slice();
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		return b;
+	}
+	
 	private byte[] readStream(InputStream stream) throws IOException {
 		int available = stream.available();
 		int dataSize = 0;
@@ -785,6 +941,123 @@ public class PapaFile extends PapaComponent{
 		offsetAnimationTable = 	in.getLong();
 	}
 	
+	public static PapaFileSummary scanHeader(Path path) throws IOException { // reads only the header and tables, component bodies are never touched
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size == 0)
+				throw new IOException("File is empty");
+			PapaFile p = new PapaFile();
+			p.readHeader(readRegion(channel, 0, HEADER_SIZE));
+			
+			String[] strings = scanStrings(channel, p.numStrings, p.offsetStringTable);
+			
+			PapaFileSummary.TextureSummary[] textures = new PapaFileSummary.TextureSummary[p.numTextures];
+			ByteBuffer table = readRegion(channel, p.offsetTextureTable, 24 * p.numTextures);
+			for(int i =0;i<p.numTextures;i++) {
+				short nameIndex = 	table.getShort();
+				byte format = 		table.get();
+				byte input = 		table.get();
+				short width = 		table.getShort();
+				short height = 		table.getShort();
+				long dataSize = 	table.getLong();
+				long offset = 		table.getLong();
+				textures[i] = new PapaFileSummary.TextureSummary(scannedString(strings, nameIndex), format, input&0b0111_1111,
+																(input & 0b1000_0000)==0b1000_0000, width, height, dataSize, offset < 0);
+			}
+			
+			PapaFileSummary.BufferSummary[] vBuffers = new PapaFileSummary.BufferSummary[p.numVBuffers];
+			table = readRegion(channel, p.offsetVBufferTable, 24 * p.numVBuffers);
+			for(int i =0;i<p.numVBuffers;i++) {
+				byte format = table.get();
+				table.position(table.position() + 3);
+				vBuffers[i] = new PapaFileSummary.BufferSummary(PapaVertexBuffer.getFormatName(format), table.getInt(), table.getLong());
+				table.getLong();
+			}
+			
+			PapaFileSummary.BufferSummary[] iBuffers = new PapaFileSummary.BufferSummary[p.numIBuffers];
+			table = readRegion(channel, p.offsetIBufferTable, 24 * p.numIBuffers);
+			for(int i =0;i<p.numIBuffers;i++) {
+				byte format = table.get();
+				table.position(table.position() + 3);
+				iBuffers[i] = new PapaFileSummary.BufferSummary(PapaIndexBuffer.getFormatName(format), table.getInt(), table.getLong());
+				table.getLong();
+			}
+			
+			String[] materials = new String[p.numMaterials];
+			table = readRegion(channel, p.offsetMaterialTable, 32 * p.numMaterials);
+			for(int i =0;i<p.numMaterials;i++)
+				materials[i] = scannedString(strings, table.getShort(32 * i));
+			
+			String[] models = new String[p.numModels];
+			table = readRegion(channel, p.offsetModelTable, 80 * p.numModels);
+			for(int i =0;i<p.numModels;i++)
+				models[i] = scannedString(strings, table.getShort(80 * i));
+			
+			PapaFileSummary.AnimationSummary[] animations = new PapaFileSummary.AnimationSummary[p.numAnimations];
+			table = readRegion(channel, p.offsetAnimationTable, 32 * p.numAnimations);
+			for(int i =0;i<p.numAnimations;i++) {
+				String name = scannedString(strings, table.getShort());
+				short bones = table.getShort();
+				animations[i] = new PapaFileSummary.AnimationSummary(name, bones, table.getInt(), table.getInt(), table.getInt());
+				table.getLong();
+				table.getLong();
+			}
+			
+			return new PapaFileSummary(path.toFile(), size, p.minorVersion, p.majorVersion, strings, textures, vBuffers, iBuffers, materials,
+										p.numMeshes, p.numSkeletons, models, animations);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException("File "+path+" not found.");
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IOException("File data could not be parsed.");
+		}
+	}
+	
+	private static String[] scanStrings(FileChannel channel, short numStrings, long offsetStringTable) throws IOException {
+		if(numStrings <= 0)
+			return new String[0];
+		ByteBuffer table = readRegion(channel, offsetStringTable, 16 * numStrings);
+		
+		int[] length = 	new int[numStrings];
+		long[] offset = new long[numStrings];
+		long start = Long.MAX_VALUE;
+		long end = 0;
+		for(int i =0;i<numStrings;i++) {
+			length[i] = 	table.getInt();
+			table.getInt();
+			offset[i] = 	table.getLong();
+			start = Math.min(start, offset[i]);
+			end = Math.max(end, offset[i] + length[i]);
+		}
+		
+		ByteBuffer data = readRegion(channel, start, (int) (end - start)); // the string bodies are stored together, read them in one go
+		String[] strings = new String[numStrings];
+		for(int i=0;i<numStrings;i++) {
+			byte[] buf = new byte[length[i]];
+			data.position((int) (offset[i] - start));
+			data.get(buf);
+			strings[i] = new String(buf);
+		}
+		return strings;
+	}
+	
+	private static String scannedString(String[] strings, short index) throws IOException {
+		if(index==-1)
+			return "";
+		if(index < 0 || index >= strings.length)
+			throw new IOException("Invalid name index");
+		return strings[index];
+	}
+	
+	private static ByteBuffer readRegion(FileChannel channel, long offset, int size) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(Math.max(size, 0));
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		while(b.hasRemaining())
+			if(channel.read(b, offset + b.position()) == -1)
+				throw new EOFException("Unexpected end of file");
+		b.flip();
+		return b;
+	}
+	
 	private void readStrings(ByteBuffer in) throws IOException {
 		if (numStrings == 0)
 			return;
@@ -811,7 +1084,7 @@ public class PapaFile extends PapaComponent{
 			
 			String s = new String(buf);
 			
-			strings.add(new PapaString(s, padding[i],this));
+			addString(new PapaString(s, padding[i],this));
 		}
 	}
 	
@@ -841,26 +1114,24 @@ public class PapaFile extends PapaComponent{
 			offset[i] = 	in.getLong();
 		}
 		
+		ArrayList<ComponentDecoder<PapaTexture>> decoders = new ArrayList<ComponentDecoder<PapaTexture>>();
 		for(int i=0;i<numTextures;i++) {
+			final int index = i;
 			if(offset[i] >=0) {
-				in.position((int) offset[i]);
-				byte[] buf = new byte[(int) size[i]];
-				in.get(buf);
+				ByteBuffer buf = slice(in, offset[i], (int) size[i]);
+				String name = getString(nameIndex[i]).getValue();
 				
-				textures.add(new PapaTexture(getString(nameIndex[i]).getValue(), format[i],
-											mips[i], srgb[i], width[i], height[i], buf, this));
+				decoders.add(() -> syncBody(new PapaTexture(name, format[index], mips[index], srgb[index], width[index], height[index], buf, this), offset[index]));
 			} else { // file is linked
-				if(PA_ROOT_DIR==null) 
+				if(SEARCH_PATHS.isEmpty()) 
 					throw new IOException("Cannot load external images. Media directory not set.");
 				String name = strings.get(nameIndex[i]).getValue();
-				String fullPath = PapaFile.PA_ROOT_DIR + name;
-				PapaFile p = openLinkedPapaFile(fullPath);
-				if(p!=null)
-					addToLinkedFiles(name, p);
-				textures.add(new PapaTexture(name,this));
+				requestLinkedFile(name);
+				decoders.add(() -> new PapaTexture(name,this)); // resolves to the real linked file once it is joined
 			}
 			
 		}
+		decodeComponents(textures, decoders);
 	}
 	
 	private void readVBuffers(ByteBuffer in) throws IOException {
@@ -881,12 +1152,13 @@ public class PapaFile extends PapaComponent{
 			offset[i] = 	in.getLong();
 		}
 		
+		ArrayList<ComponentDecoder<PapaVertexBuffer>> decoders = new ArrayList<ComponentDecoder<PapaVertexBuffer>>();
 		for(int i=0;i<numVBuffers;i++) {
-			in.position((int) offset[i]);
-			byte[] buf = new byte[(int)size[i]];
-			in.get(buf);
-			vBuffers.add(new PapaVertexBuffer(format[i], vertices[i], buf, this));
+			final int index = i;
+			ByteBuffer buf = slice(in, offset[i], (int) size[i]);
+			decoders.add(() -> syncBody(new PapaVertexBuffer(format[index], vertices[index], buf, this), offset[index]));
 		}
+		decodeComponents(vBuffers, decoders);
 	}
 	
 	private void readIBuffers(ByteBuffer in) throws IOException {
@@ -907,12 +1179,13 @@ public class PapaFile extends PapaComponent{
 			offset[i] = 	in.getLong();
 		}
 		
+		ArrayList<ComponentDecoder<PapaIndexBuffer>> decoders = new ArrayList<ComponentDecoder<PapaIndexBuffer>>();
 		for(int i=0;i<numIBuffers;i++) {
-			in.position((int) offset[i]);
-			byte[] buf = new byte[(int)size[i]];
-			in.get(buf);
-			iBuffers.add(new PapaIndexBuffer(format[i], indices[i], buf, this));
+			final int index = i;
+			ByteBuffer buf = slice(in, offset[i], (int) size[i]);
+			decoders.add(() -> syncBody(new PapaIndexBuffer(format[index], indices[index], buf, this), offset[index]));
 		}
+		decodeComponents(iBuffers, decoders);
 	}
 	
 	private void readMaterials(ByteBuffer in) throws IOException {
@@ -939,26 +1212,17 @@ public class PapaFile extends PapaComponent{
 		}
 		
 		for(int i=0;i<numMaterials;i++) {
-			byte[] vectorBuf = new byte[0];
-			byte[] textureBuf = new byte[0];
-			byte[] matrixBuf = new byte[0];
-			if(numVectorParam[i] != 0) {
-				vectorBuf = new byte[24 * numVectorParam[i]];
-				in.position((int)offsetVectorParam[i]);
-				in.get(vectorBuf);
-			}
+			ByteBuffer vectorBuf = EMPTY_BUFFER;
+			ByteBuffer textureBuf = EMPTY_BUFFER;
+			ByteBuffer matrixBuf = EMPTY_BUFFER;
+			if(numVectorParam[i] != 0)
+				vectorBuf = slice(in, offsetVectorParam[i], 24 * numVectorParam[i]);
 			
-			if(numTextureParam[i] != 0) {
-				textureBuf = new byte[8 * numTextureParam[i]];
-				in.position((int)offsetTextureParam[i]);
-				in.get(textureBuf);
-			}
+			if(numTextureParam[i] != 0)
+				textureBuf = slice(in, offsetTextureParam[i], 8 * numTextureParam[i]);
 			
-			if(numMatrixParam[i] != 0) {
-				matrixBuf = new byte[72 * numMatrixParam[i]];
-				in.position((int)offsetMatrixparam[i]);
-				in.get(matrixBuf);
-			}
+			if(numMatrixParam[i] != 0)
+				matrixBuf = slice(in, offsetMatrixparam[i], 72 * numMatrixParam[i]);
 			
 			materials.add(new PapaMaterial(getString(shaderIndex[i]).getValue(), numVectorParam[i], numTextureParam[i], numMatrixParam[i],
 											vectorBuf, textureBuf, matrixBuf, this));
@@ -984,13 +1248,10 @@ public class PapaFile extends PapaComponent{
 		}
 		
 		for(int i=0;i<numMeshes;i++) {
-			byte[] buf = new byte[0];
+			ByteBuffer buf = EMPTY_BUFFER;
 			
-			if(materialGroups[i] != 0) {
-				buf = new byte[16 * materialGroups[i]];
-				in.position((int)offset[i]);
-				in.get(buf);
-			}
+			if(materialGroups[i] != 0)
+				buf = slice(in, offset[i], 16 * materialGroups[i]);
 			
 			meshes.add(new PapaMesh(getVertexBuffer(vBuffer[i]),getIndexBuffer(iBuffer[i]),materialGroups[i], buf, this));
 		}
@@ -1012,13 +1273,14 @@ public class PapaFile extends PapaComponent{
 			offset[i] = 	in.getLong();
 		}
 		
+		ArrayList<ComponentDecoder<PapaSkeleton>> decoders = new ArrayList<ComponentDecoder<PapaSkeleton>>();
 		for(int i=0;i<numSkeletons;i++) {
-			byte[] buf = new byte[132 * bones[i]];
-			in.position((int)offset[i]);
-			in.get(buf);
+			final int index = i;
+			ByteBuffer buf = slice(in, offset[i], 132 * bones[i]);
 			
-			skeletons.add(new PapaSkeleton(bones[i], buf, this));
+			decoders.add(() -> new PapaSkeleton(bones[index], buf, this));
 		}
+		decodeComponents(skeletons, decoders);
 	}
 	
 	private void readModels(ByteBuffer in) throws IOException {
@@ -1080,13 +1342,10 @@ public class PapaFile extends PapaComponent{
 		
 		for(int i=0;i<numMeshBindings;i++) {
 			
-			byte[] buf = new byte[0];
+			ByteBuffer buf = EMPTY_BUFFER;
 			
-			if(boneMappings[i] != 0) {
-				buf = new byte[2 * boneMappings[i]];
-				in.position((int)offset[i]);
-				in.get(buf);
-			}
+			if(boneMappings[i] != 0)
+				buf = slice(in, offset[i], 2 * boneMappings[i]);
 			
 			meshBindings[i] = new PapaMeshBinding(getString(name[i]).getValue(), getMesh(mesh[i]), boneMappings[i], meshToModel[i], buf);
 		}
@@ -1117,24 +1376,16 @@ public class PapaFile extends PapaComponent{
 			transformOffset[i] =			in.getLong();
 		}
 		
+		ArrayList<ComponentDecoder<PapaAnimation>> decoders = new ArrayList<ComponentDecoder<PapaAnimation>>();
 		for(int i=0;i<numAnimations;i++) {
-			byte[] boneBuf = new byte[0];
-			byte[] transformBuf = new byte[0];
-			
-			if(bones[i] != 0) {
-				boneBuf = new byte[2 * bones[i]];
-				in.position((int)boneNameTableOffset[i]);
-				in.get(boneBuf);
-			}
+			final int index = i;
+			ByteBuffer boneBuf = 		bones[i] != 0 ? slice(in, boneNameTableOffset[i], 2 * bones[i]) : EMPTY_BUFFER;
+			ByteBuffer transformBuf = 	frames[i] != 0 ? slice(in, transformOffset[i], 28 * frames[i] * bones[i]) : EMPTY_BUFFER;
+			String animationName = getString(name[i]).getValue();
 			
-			if(frames[i] != 0) {
-				transformBuf = new byte[28 * frames[i] * bones[i]];
-				in.position((int)transformOffset[i]);
-				in.get(transformBuf);
-			}
-			
-			animations.add(new PapaAnimation(getString(name[i]).getValue(), bones[i], frames[i], fps1[i], fps2[i], boneBuf, transformBuf, this));
+			decoders.add(() -> new PapaAnimation(animationName, bones[index], frames[index], fps1[index], fps2[index], boneBuf, transformBuf, this));
 		}
+		decodeComponents(animations, decoders);
 	}
 	public int indexOf(PapaString string) {
 		return strings.indexOf(string);
@@ -1169,17 +1420,61 @@ public class PapaFile extends PapaComponent{
 		return this.fileName;
 	}
 	
-	private PapaFile openLinkedPapaFile(String fullPath) throws IOException{
+	private PapaFile openLinkedPapaFile(String name) throws IOException{
 		try {
-			return PapaFile.readLinkedFile(fullPath,this);
+			return PapaFile.readLinkedFile(name,this);
 		} catch (IOException e) {
-			if(PapaFile.ERROR_IF_NOT_FOUND)
-				throw new IOException("Failed to open linked file: "+e.getMessage());
-			else {
-				System.err.println("Failed to open linked file: "+e.getMessage());
-				return null;
+			return linkedFileFailed(e);
+		}
+	}
+	
+	private static PapaFile linkedFileFailed(IOException e) throws IOException {
+		if(PapaFile.ERROR_IF_NOT_FOUND)
+			throw new IOException("Failed to open linked file: "+e.getMessage());
+		else {
+			System.err.println("Failed to open linked file: "+e.getMessage());
+			return null;
+		}
+	}
+	
+	private void requestLinkedFile(String name) {
+		if(pendingLinkedFiles==null)
+			pendingLinkedFiles = new LinkedHashMap<String, Future<PapaFile>>();
+		if(pendingLinkedFiles.containsKey(name))
+			return;
+		Callable<PapaFile> load = () -> loadLinkedFile(name);
+		if(IS_LINKED_FILE_LOADER.get()) { // a linked file linking other files, loading inline keeps the pool from waiting on itself
+			FutureTask<PapaFile> task = new FutureTask<PapaFile>(load);
+			task.run();
+			pendingLinkedFiles.put(name, task);
+		} else
+			pendingLinkedFiles.put(name, LINKED_FILE_LOADER.submit(load));
+	}
+	
+	private void joinLinkedFiles() throws IOException {
+		if(pendingLinkedFiles==null)
+			return;
+		for(Entry<String, Future<PapaFile>> e : pendingLinkedFiles.entrySet()) {
+			PapaFile p;
+			try {
+				p = e.getValue().get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while opening linked file "+e.getKey());
+			} catch (ExecutionException ex) {
+				Throwable cause = ex.getCause();
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if(cause instanceof Error)
+					throw (Error) cause;
+				p = linkedFileFailed(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+			}
+			if(p!=null) {
+				p.attach(this);
+				addToLinkedFiles(e.getKey(), p);
 			}
 		}
+		pendingLinkedFiles = null;
 	}
 	
 	public byte[] getFileBytes() {
@@ -1226,6 +1521,275 @@ public class PapaFile extends PapaComponent{
 		buildSuccessful=true;
 	}
 	
+	public void writeTo(Path path) throws IOException {
+		buildSuccessful=false;
+		validateAll();
+		if(testBuildErrorLevel(BuildNotification.ERROR)) // leave the file untouched if it cannot be built
+			return;
+		WeakHashMap<Object, Long> bodies = new WeakHashMap<Object, Long>();
+		int[][] bodyOffsets = isSynced(path) ? planPatch() : null;
+		if(bodyOffsets!=null) {
+			// the file is never truncated, it may still be mapped by a PapaFile that read it and has not been collected yet.
+			// The patch is not atomic, if it is interrupted the file is left with some of the new headers and bodies written
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				patchComponents(channel, bodyOffsets, bodies);
+			}
+		} else {
+			replaceFile(path, bodies);
+		}
+		synchronized(syncedBodies) {
+			syncedBodies = bodies;
+		}
+		markSynced(path);
+	}
+	
+	private void replaceFile(Path path, Map<Object, Long> bodies) throws IOException { // written next to the target and moved over it, the original is untouched until the new file is complete
+		Path temp = path.resolveSibling(path.getFileName()+"."+Long.toHexString(System.nanoTime())+".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				writeComponents(channel, bodies);
+			}
+			try {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+	
+	private <T extends PapaComponent> T syncBody(T comp, long offset) { // records where a component's body was read from
+		Object source = comp.getBodySource();
+		if(source!=null)
+			synchronized(syncedBodies) {
+				syncedBodies.put(source, offset);
+			}
+		return comp;
+	}
+	
+	private void markSynced(Path path) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			syncedPath = path.toAbsolutePath().normalize();
+			syncedSize = attributes.size();
+			syncedModified = attributes.lastModifiedTime();
+			syncedKey = attributes.fileKey();
+		} catch (IOException e) {
+			syncedPath = null;
+		}
+	}
+	
+	private boolean isSynced(Path path) { // true if the file is still exactly as it was last read or written
+		if(syncedPath==null || !syncedPath.equals(path.toAbsolutePath().normalize()))
+			return false;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			return attributes.size()==syncedSize && attributes.lastModifiedTime().equals(syncedModified) && Objects.equals(attributes.fileKey(), syncedKey);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	public void build(WritableByteChannel channel) throws IOException {
+		buildSuccessful=false;
+		validateAll();
+		if(testBuildErrorLevel(BuildNotification.ERROR))
+			return;
+		writeComponents(channel, null);
+	}
+	
+	private long layoutTables(long[] tableOffsets) throws IOException { // sizing pass, only the table offsets are needed before anything is written
+		long position = HEADER_SIZE;
+		for(int i=0;i<9;i++) {
+			int index = buildOrder[i];
+			tableOffsets[index] = components[index].size()!=0 ? position : -1;
+			for(PapaComponent p : components[index])
+				position+=p.headerSize() + ceilEight(p.bodySize());
+		}
+		if(position > Integer.MAX_VALUE)
+			throw new IOException("File is too large to be built ("+position+" bytes)");
+		return position;
+	}
+	
+	private ByteBuffer layoutHeader(long[] tableOffsets) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		buildHeader(header);
+		for(long offset : tableOffsets)
+			header.putLong(offset);
+		header.flip();
+		return header;
+	}
+	
+	private void writeComponents(WritableByteChannel channel, Map<Object, Long> bodies) throws IOException {
+		this.fileBytes = null;
+		
+		long[] tableOffsets = new long[9];
+		layoutTables(tableOffsets);
+		writeFully(channel, new ByteBuffer[] {layoutHeader(tableOffsets)});
+		
+		for(int i=0;i<9;i++) {
+			int index = buildOrder[i];
+			if(components[index].size()!=0)
+				writeComponent(components[index], (int) tableOffsets[index], channel, bodies);
+		}
+		buildSuccessful=true;
+	}
+	
+	private int[][] planPatch() throws IOException { // builds everything and returns where each body goes, or null if the file cannot be patched in place
+		long[] tableOffsets = new long[9];
+		layoutTables(tableOffsets);
+		
+		int[][] tableBodyOffsets = new int[9][];
+		for(int i=0;i<9;i++) { // everything is built before the first write so a failed build leaves the file as it was
+			int index = buildOrder[i];
+			List<? extends PapaComponent> comp = components[index];
+			if(comp.size()==0)
+				continue;
+			tableBodyOffsets[index] = buildHeaders(comp, (int) tableOffsets[index]);
+			for(int j = 0;j<comp.size();j++) { // once bodies move the patch is no cheaper than a new file and only less safe
+				Object source = comp.get(j).getBodySource();
+				Long stored;
+				synchronized(syncedBodies) {
+					stored = source==null ? null : syncedBodies.get(source);
+				}
+				if(stored!=null && stored!=tableBodyOffsets[index][j])
+					return null;
+			}
+		}
+		return tableBodyOffsets;
+	}
+	
+	private void patchComponents(FileChannel channel, int[][] tableBodyOffsets, Map<Object, Long> bodies) throws IOException { // writes everything except the bodies already stored where they belong
+		this.fileBytes = null;
+		
+		long[] tableOffsets = new long[9];
+		long end = layoutTables(tableOffsets);
+		writeAt(channel, layoutHeader(tableOffsets), 0);
+		
+		for(int i=0;i<9;i++) {
+			int index = buildOrder[i];
+			List<? extends PapaComponent> comp = components[index];
+			if(comp.size()==0)
+				continue;
+			int offset = (int) tableOffsets[index];
+			int[] bodyOffsets = tableBodyOffsets[index];
+			
+			ByteBuffer headers = ByteBuffer.allocate(bodyOffsets[0] - offset);
+			for(PapaComponent p : comp)
+				headers.put(p.getHeaderBytes());
+			headers.flip();
+			writeAt(channel, headers, offset);
+			
+			for(int j = 0;j<comp.size();j++) {
+				PapaComponent p = comp.get(j);
+				Object source = p.getBodySource();
+				Long stored;
+				synchronized(syncedBodies) {
+					stored = source==null ? null : syncedBodies.get(source);
+				}
+				if(source!=null)
+					bodies.put(source, (long) bodyOffsets[j]);
+				if(stored==null || stored!=bodyOffsets[j]) {
+					byte[] body = p.getDataBytes();
+					writeAt(channel, ByteBuffer.wrap(body), bodyOffsets[j]);
+					int padding = ceilEight(body.length) - body.length;
+					if(padding!=0)
+						writeAt(channel, ByteBuffer.wrap(PADDING, 0, padding), bodyOffsets[j] + body.length);
+				}
+				p.header = null;
+				p.data = null;
+			}
+		}
+		clearTail(channel, end, channel.size()); // a shorter layout leaves zeros after its end, nothing points at them
+		buildSuccessful=true;
+	}
+	
+	private int[] buildHeaders(List<? extends PapaComponent> comp, int offset) throws IOException { // builds every component and returns where each body starts
+		int currentSize = 0;
+		
+		for(PapaComponent p : comp) {
+			p.build();
+			currentSize+=p.headerSize();
+		}
+		
+		int[] bodyOffsets = new int[comp.size()];
+		int n = 0;
+		for(PapaComponent p : comp) {
+			bodyOffsets[n++] = currentSize + offset;
+			p.applyOffset(currentSize + offset);
+			currentSize+=ceilEight(p.bodySize());
+			byte[] header = p.getHeaderBytes();
+			if(header.length != p.headerSize()) // offsets were calculated from headerSize, a mismatch would silently corrupt the file
+				throw new IOException(p.getClass().getSimpleName()+" header is "+header.length+" bytes, expected "+p.headerSize());
+			byte[] body = p.getDataBytes();
+			if(ceilEight(body.length) != ceilEight(p.bodySize())) // bodySize may already include the padding, any other difference moves the next body
+				throw new IOException(p.getClass().getSimpleName()+" body is "+body.length+" bytes, expected "+p.bodySize());
+		}
+		return bodyOffsets;
+	}
+	
+	private void writeComponent(List<? extends PapaComponent> comp, int offset, WritableByteChannel channel, Map<Object, Long> bodies) throws IOException {
+		int[] bodyOffsets = buildHeaders(comp, offset);
+		
+		ByteBuffer[] buffers = new ByteBuffer[comp.size() * 3];
+		int n = 0;
+		for(PapaComponent p : comp)
+			buffers[n++] = ByteBuffer.wrap(p.getHeaderBytes());
+		
+		if(bodies!=null)
+			for(int j = 0;j<comp.size();j++) {
+				Object source = comp.get(j).getBodySource();
+				if(source!=null)
+					bodies.put(source, (long) bodyOffsets[j]);
+			}
+		
+		for(PapaComponent p : comp) {
+			byte[] body = p.getDataBytes();
+			buffers[n++] = ByteBuffer.wrap(body);
+			int padding = ceilEight(body.length) - body.length;
+			if(padding!=0)
+				buffers[n++] = ByteBuffer.wrap(PADDING, 0, padding);
+		}
+		writeFully(channel, Arrays.copyOf(buffers, n));
+		
+		for(PapaComponent p : comp) { // the built bytes are not needed once written
+			p.header = null;
+			p.data = null;
+		}
+	}
+	
+	private static void clearTail(FileChannel channel, long position, long end) throws IOException {
+		ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(Math.max(end - position, 0), 65536));
+		while(position < end) {
+			zeros.clear();
+			zeros.limit((int) Math.min(end - position, zeros.capacity()));
+			writeAt(channel, zeros, position);
+			position+=zeros.limit();
+		}
+	}
+	
+	private static void writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining())
+			position+=channel.write(buffer, position);
+	}
+	
+	private static void writeFully(WritableByteChannel channel, ByteBuffer[] buffers) throws IOException {
+		if(channel instanceof GatheringByteChannel) {
+			GatheringByteChannel g = (GatheringByteChannel) channel;
+			int start = 0;
+			while(start < buffers.length) {
+				g.write(buffers, start, buffers.length - start);
+				while(start < buffers.length && !buffers[start].hasRemaining())
+					start++;
+			}
+		} else
+			for(ByteBuffer b : buffers)
+				while(b.hasRemaining())
+					channel.write(b);
+	}
+	
 	private int calcFileSize() {
 		int totalSize = PapaFile.HEADER_SIZE;
 		for(int i=0;i<components.length;i++)
@@ -1262,7 +1826,7 @@ public class PapaFile extends PapaComponent{
 		return buildNotifications;
 	}
 	
-	private ArrayList<BuildNotification> validateComponent(ArrayList<? extends PapaComponent> comp) {
+	private ArrayList<BuildNotification> validateComponent(List<? extends PapaComponent> comp) {
 		ArrayList<BuildNotification> notifications = new ArrayList<BuildNotification>();
 		for(PapaComponent p : comp)
 			for(BuildNotification b : p.validate())
@@ -1290,7 +1854,7 @@ public class PapaFile extends PapaComponent{
 		b.put(new byte[6]);
 	}
 	
-	private void buildComponent(ArrayList<? extends PapaComponent> comp, ByteBuffer b) {
+	private void buildComponent(List<? extends PapaComponent> comp, ByteBuffer b) {
 		int currentSize = 0;
 		
 		for(PapaComponent p : comp) {
@@ -1315,19 +1879,57 @@ public class PapaFile extends PapaComponent{
 		for(PapaString s : strings)
 			s.flush();
 		strings.clear();
+		stringIndices.clear();
+		duplicateStrings = false;
+	}
+	
+	private int addString(PapaString s) {
+		int index = strings.size();
+		strings.add(s);
+		if(!stringIndices.containsKey(s.getValue())) // duplicates read from a file resolve to the first occurrence
+			stringIndices.put(s.getValue(), index);
+		else
+			duplicateStrings = true;
+		return index;
+	}
+	
+	void stringChanged(PapaString s, String oldValue) { // only the entries of the old and the new value can change
+		Integer first = stringIndices.get(oldValue);
+		int index = first!=null && strings.get(first)==s ? first : indexOfString(s);
+		if(index==-1)
+			return;
+		if(first!=null && first==index) {
+			stringIndices.remove(oldValue);
+			if(duplicateStrings) // a later string may hold the old value too
+				for(int i = index + 1;i<strings.size();i++)
+					if(strings.get(i).getValue().equals(oldValue)) {
+						stringIndices.put(oldValue, i);
+						break;
+					}
+		}
+		Integer current = stringIndices.get(s.getValue());
+		if(current!=null)
+			duplicateStrings = true;
+		if(current==null || current > index)
+			stringIndices.put(s.getValue(), index);
+	}
+	
+	private int indexOfString(PapaString s) {
+		for(int i = 0;i<strings.size();i++)
+			if(strings.get(i)==s)
+				return i;
+		return -1;
 	}
 	
 	public int getOrMakeString(String s) {
 		if(s.equals(""))
 			return -1;
-		for(int i = 0;i<strings.size();i++)
-			if(strings.get(i).getValue().equals(s)) {
-				return i;
-			}
+		Integer index = stringIndices.get(s);
+		if(index!=null)
+			return index;
 		
-		strings.add(new PapaString(s,0,this));
 		numStrings++;
-		return strings.size() - 1;
+		return addString(new PapaString(s,0,this));
 	}
 	
 	@Override
@@ -1340,10 +1942,11 @@ public class PapaFile extends PapaComponent{
 		if(isLinked)
 			detach();
 		
-		for(ArrayList<? extends PapaComponent> al : components)
+		for(List<? extends PapaComponent> al : components)
 			for(PapaComponent p : al)
 				p.flush();
 		strings = null;
+		stringIndices = null;
 		textures = null;
 		fileBytes = null;
 		fileName = null;
@@ -1406,23 +2009,41 @@ public class PapaFile extends PapaComponent{
 		result = prime * result + 		linkedFiles.hashCode();
 		return result;
 	}
-	//TODO: add multiple search paths
-	/*
-	public static String getSearchPaths()
-	public static void addSearchPath(File f)
-	 */
+	public static File[] getSearchPaths() { // in search order, the media directory is always searched last
+		return SEARCH_PATHS.getRoots();
+	}
+	
+	public static void addSearchPath(File f) {
+		SEARCH_PATHS.addRoot(f);
+	}
+	
+	public static boolean removeSearchPath(File f) {
+		return SEARCH_PATHS.removeRoot(f);
+	}
+	
+	public static void refreshSearchPaths() { // the next lookup walks the search paths again
+		SEARCH_PATHS.refresh();
+	}
 	
 	public static File getPlanetaryAnnihilationDirectory() {
 		return PA_ROOT_DIR;
 	}
 	
+	public static void setLinkedFileCacheSize(long bytes) {
+		LINKED_FILE_CACHE.setBudget(bytes);
+	}
+	
+	public static long getLinkedFileCacheSize() {
+		return LINKED_FILE_CACHE.getBudget();
+	}
+	
+	public static void clearLinkedFileCache() {
+		LINKED_FILE_CACHE.clear();
+	}
+	
 	public static void setPADirectory(File f) {
 		PA_ROOT_DIR = f;
-		if(f==null) {
-			PA_ROOT_DIR_STRING = null;
-			return;
-		}
-		PA_ROOT_DIR_STRING = f.getAbsolutePath().replace('\\', '/');
+		SEARCH_PATHS.setMediaDirectory(f);
 	}
 
 	@Override
@@ -1464,6 +2085,30 @@ public class PapaFile extends PapaComponent{
 		return null;
 	}
 
+	boolean isTextureFile() { // only textures holding their own data, the files copyTextureFile can share
+		if(linkedFiles.size()!=0)
+			return false;
+		for(List<? extends PapaComponent> comp : components)
+			if(comp!=strings && comp!=textures && comp.size()!=0)
+				return false;
+		for(PapaTexture t : textures)
+			if(t.isLinked())
+				return false;
+		return true;
+	}
+	
+	PapaFile copyTextureFile(File location) { // strings are regenerated from the textures, as they are after any change
+		PapaFile p = new PapaFile();
+		p.setFileLocation(location);
+		p.signature = signature;
+		p.majorVersion = majorVersion;
+		p.minorVersion = minorVersion;
+		for(PapaTexture t : textures)
+			t.shareContents().attach(p);
+		p.fileSize = fileSize;
+		return p;
+	}
+	
 	public PapaFile getEmptyCopy() {
 		PapaFile p = new PapaFile();
 		p.setFileLocation(fileLocation);
@@ -1496,11 +2141,19 @@ public class PapaFile extends PapaComponent{
 	}
 	
 	public PapaComponent[] getAllDependentsFor(PapaComponent comp) {
-		ArrayList<PapaComponent> fileComponents = getAllComponents();
 		ArrayList<PapaComponent> dependents = new ArrayList<PapaComponent>();
-		for(PapaComponent p : fileComponents)
-			if(p.isDependentOn(comp))
+		if(comp.getClass()==PapaString.class) { // strings are matched by value, not kept in the graph
+			for(PapaComponent p : getAllComponents())
+				if(p.isDependentOn(comp))
+					dependents.add(p);
+		} else {
+			for(PapaComponent p : dependencyGraph.getReferrers(comp))
 				dependents.add(p);
+			if(comp.getClass()==PapaTexture.class || comp.getClass()==PapaFile.class) // links are resolved by name through the linked files
+				for(PapaTexture t : textures)
+					if(t.isLinked() && t.isDependentOn(comp))
+						dependents.add(t);
+		}
 		
 		if(isLinkedFile())
 			for(PapaComponent p : getParent().getAllDependentsFor(comp))
@@ -1519,7 +2172,7 @@ public class PapaFile extends PapaComponent{
 
 	private ArrayList<PapaComponent> getAllComponents() {
 		ArrayList<PapaComponent> comp = new ArrayList<PapaComponent>();
-		for(ArrayList<? extends PapaComponent> list : components)
+		for(List<? extends PapaComponent> list : components)
 			comp.addAll(list);
 		return comp;
 	}
@@ -0,0 +1,283 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * A read only description of a papa file built from its header and component tables. No component bodies are read or decoded.
+ * @see PapaFile#scanHeader(java.nio.file.Path)
+ */
+public class PapaFileSummary {
+	
+	private final File file;
+	private final long fileSize;
+	private final int minorVersion;
+	private final int majorVersion;
+	
+	private final String[] strings;
+	private final TextureSummary[] textures;
+	private final BufferSummary[] vBuffers;
+	private final BufferSummary[] iBuffers;
+	private final String[] materials;
+	private final int numMeshes;
+	private final int numSkeletons;
+	private final String[] models;
+	private final AnimationSummary[] animations;
+	
+	PapaFileSummary(File file, long fileSize, int minorVersion, int majorVersion, String[] strings, TextureSummary[] textures, BufferSummary[] vBuffers,
+					BufferSummary[] iBuffers, String[] materials, int numMeshes, int numSkeletons, String[] models, AnimationSummary[] animations) {
+		this.file = file;
+		this.fileSize = fileSize;
+		this.minorVersion = minorVersion;
+		this.majorVersion = majorVersion;
+		this.strings = strings;
+		this.textures = textures;
+		this.vBuffers = vBuffers;
+		this.iBuffers = iBuffers;
+		this.materials = materials;
+		this.numMeshes = numMeshes;
+		this.numSkeletons = numSkeletons;
+		this.models = models;
+		this.animations = animations;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public long getFileSize() {
+		return fileSize;
+	}
+	
+	public int getMajorVersion() {
+		return majorVersion;
+	}
+	
+	public int getMinorVersion() {
+		return minorVersion;
+	}
+	
+	public String getVersion() {
+		return majorVersion+"."+minorVersion;
+	}
+	
+	public int getNumStrings() {
+		return strings.length;
+	}
+	
+	public int getNumTextures() {
+		return textures.length;
+	}
+	
+	public int getNumVBuffers() {
+		return vBuffers.length;
+	}
+	
+	public int getNumIBuffers() {
+		return iBuffers.length;
+	}
+	
+	public int getNumMaterials() {
+		return materials.length;
+	}
+	
+	public int getNumMeshes() {
+		return numMeshes;
+	}
+	
+	public int getNumSkeletons() {
+		return numSkeletons;
+	}
+	
+	public int getNumModels() {
+		return models.length;
+	}
+	
+	public int getNumAnimations() {
+		return animations.length;
+	}
+	
+	public String getString(int index) {
+		return strings[index];
+	}
+	
+	public TextureSummary getTexture(int index) {
+		return textures[index];
+	}
+	
+	public BufferSummary getVertexBuffer(int index) {
+		return vBuffers[index];
+	}
+	
+	public BufferSummary getIndexBuffer(int index) {
+		return iBuffers[index];
+	}
+	
+	public String getMaterialShader(int index) {
+		return materials[index];
+	}
+	
+	public String getModelName(int index) {
+		return models[index];
+	}
+	
+	public AnimationSummary getAnimation(int index) {
+		return animations[index];
+	}
+	
+	public String[] getLinkedTextureNames() {
+		ArrayList<String> names = new ArrayList<String>();
+		for(TextureSummary t : textures)
+			if(t.isLinked())
+				names.add(t.getName());
+		return names.toArray(new String[names.size()]);
+	}
+	
+	@Override
+	public String toString() {
+		return file==null ? "Unknown" : file.getName();
+	}
+	
+	public static class TextureSummary {
+		private final String name;
+		private final byte format;
+		private final int numImages;
+		private final boolean srgb;
+		private final int width;
+		private final int height;
+		private final long dataSize;
+		private final boolean isLinked;
+		
+		TextureSummary(String name, byte format, int numImages, boolean srgb, int width, int height, long dataSize, boolean isLinked) {
+			this.name = name;
+			this.format = format;
+			this.numImages = numImages;
+			this.srgb = srgb;
+			this.width = width;
+			this.height = height;
+			this.dataSize = dataSize;
+			this.isLinked = isLinked;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public String getFormat() {
+			return PapaTexture.getFormatName(format);
+		}
+		
+		public int getNumImages() {
+			return numImages;
+		}
+		
+		public int getMips() { // same as PapaTexture, the stored count includes the texture itself
+			return Math.max(numImages - 1, 0);
+		}
+		
+		public boolean getSRGB() {
+			return srgb;
+		}
+		
+		public int getWidth() {
+			return width;
+		}
+		
+		public int getHeight() {
+			return height;
+		}
+		
+		public long getDataSize() {
+			return dataSize;
+		}
+		
+		public boolean isLinked() {
+			return isLinked;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+	
+	public static class BufferSummary {
+		private final String format;
+		private final int count;
+		private final long dataSize;
+		
+		BufferSummary(String format, int count, long dataSize) {
+			this.format = format;
+			this.count = count;
+			this.dataSize = dataSize;
+		}
+		
+		public String getFormat() {
+			return format;
+		}
+		
+		public int getCount() { // vertices or indices, depending on the buffer type
+			return count;
+		}
+		
+		public long getDataSize() {
+			return dataSize;
+		}
+	}
+	
+	public static class AnimationSummary {
+		private final String name;
+		private final int numBones;
+		private final int numFrames;
+		private final int fpsNumerator;
+		private final int fpsDenominator;
+		
+		AnimationSummary(String name, int numBones, int numFrames, int fpsNumerator, int fpsDenominator) {
+			this.name = name;
+			this.numBones = numBones;
+			this.numFrames = numFrames;
+			this.fpsNumerator = fpsNumerator;
+			this.fpsDenominator = fpsDenominator;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getNumBones() {
+			return numBones;
+		}
+		
+		public int getNumFrames() {
+			return numFrames;
+		}
+		
+		public float getFps() {
+			return (float)fpsNumerator / (float)fpsDenominator;
+		}
+		
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
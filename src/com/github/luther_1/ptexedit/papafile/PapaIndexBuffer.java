@@ -21,7 +21,10 @@ package com.github.luther_1.ptexedit.papafile;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.Buffer;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import com.github.luther_1.ptexedit.papafile.PapaFile.BuildNotification;
 
@@ -30,9 +33,16 @@ public class PapaIndexBuffer extends PapaComponent {
 	
 	private byte format;
 	
-	private int[] indices;
+	private short[] shortIndices; // only one of these is used depending on the format. Short indices are unsigned.
+	private int[] intIndices;
+	
+	private byte[] originalData; // the body as it was read, written back as is until the buffer is modified. null once modified.
 	
 	public String getFormat() {
+		return getFormatName(format);
+	}
+	
+	static String getFormatName(byte format) {
 		return format==0 ? "IF_UInt16" : "IF_UInt32";
 	}
 	
@@ -45,52 +55,76 @@ public class PapaIndexBuffer extends PapaComponent {
 	
 	
 	public PapaIndexBuffer(byte format, int indices, byte[] data, PapaFile p) throws IOException{
+		this(format, indices, ByteBuffer.wrap(data), p);
+	}
+	
+	PapaIndexBuffer(byte format, int indices, ByteBuffer buf, PapaFile p) throws IOException{
 		this.format = format;
 		this.parent = p;
 		
 		boolean isShort = format==0;
 		
-		ByteBuffer buf = ByteBuffer.wrap(data);
 		buf.order(ByteOrder.LITTLE_ENDIAN);
 		
+		originalData = toArray(buf);
 		decodeAll(indices, buf, isShort);
 	}
 	
+	public boolean isModified() {
+		return originalData==null;
+	}
+	
+	@Override
+	protected Object getBodySource() {
+		return originalData;
+	}
+	
+	public void markModified() {
+		originalData = null;
+	}
+	
 	private void decodeAll(int numIndices, ByteBuffer buf, boolean isShort) throws IOException {
 		checkData(buf, numIndices, isShort);
 		
-		this.indices = isShort ? readShorts(buf, numIndices) : readInts(buf, numIndices);
+		if(isShort) {
+			shortIndices = new short[numIndices];
+			buf.asShortBuffer().get(shortIndices);
+		} else {
+			intIndices = new int[numIndices];
+			buf.asIntBuffer().get(intIndices);
+		}
 	}
 	
-	private int[] readShorts(ByteBuffer buf, int numIndices) {
-		int[] vals = new int[numIndices];
-		for(int i =0;i<numIndices;i++)
-			vals[i] = buf.getShort() & 0xffff;
-		return vals;
+	public int getNumIndices() {
+		return format==0 ? shortIndices.length : intIndices.length;
 	}
 	
-	private int[] readInts(ByteBuffer buf, int numIndices) {
-		int[] vals = new int[numIndices];
-		for(int i =0;i<numIndices;i++)
-			vals[i] = buf.getInt();
-		return vals;
+	public int getIndex(int index) {
+		return format==0 ? shortIndices[index] & 0xffff : intIndices[index];
 	}
 	
-	public int getNumIndices() {
-		return indices.length;
+	public void copyTo(int[] dst, int offset) {
+		if(format!=0) {
+			System.arraycopy(intIndices, 0, dst, offset, intIndices.length);
+			return;
+		}
+		if(offset < 0 || offset + shortIndices.length > dst.length)
+			throw new IndexOutOfBoundsException("Cannot copy "+shortIndices.length+" indices into an array of length "+dst.length+" at offset "+offset);
+		for(int i =0;i<shortIndices.length;i++)
+			dst[offset + i] = shortIndices[i] & 0xffff;
 	}
 	
-	public int getIndex(int index) {
-		return indices[index];
+	public Buffer getIndices() { // a ShortBuffer (unsigned values) for IF_UInt16, otherwise an IntBuffer
+		if(format==0)
+			return ShortBuffer.wrap(shortIndices).asReadOnlyBuffer();
+		return IntBuffer.wrap(intIndices).asReadOnlyBuffer();
 	}
 	
 	private void encode(ByteBuffer writer) {
 		if(format==0)
-			for(int i =0;i<indices.length;i++)
-				writer.putShort((short) indices[i]);
+			writer.asShortBuffer().put(shortIndices);
 		else
-			for(int i =0;i<indices.length;i++)
-				writer.putInt(indices[i]);
+			writer.asIntBuffer().put(intIndices);
 	}
 
 
@@ -106,7 +140,7 @@ public class PapaIndexBuffer extends PapaComponent {
 
 	@Override
 	protected int bodySize() {
-		return format==0 ? indices.length * 2 : indices.length*4;
+		return format==0 ? shortIndices.length * 2 : intIndices.length*4;
 	}
 
 	@Override
@@ -115,15 +149,20 @@ public class PapaIndexBuffer extends PapaComponent {
 		header = ByteBuffer.wrap(headerBytes);
 		header.order(ByteOrder.LITTLE_ENDIAN);
 		
-		super.data = ByteBuffer.wrap(new byte[bodySize()]);
-		super.data.order(ByteOrder.LITTLE_ENDIAN);
-		encode(super.data);
+		if(originalData!=null) {
+			super.data = ByteBuffer.wrap(originalData);
+			super.data.order(ByteOrder.LITTLE_ENDIAN);
+		} else {
+			super.data = ByteBuffer.wrap(new byte[bodySize()]);
+			super.data.order(ByteOrder.LITTLE_ENDIAN);
+			encode(super.data);
+		}
 		
 		header.put((byte)this.format);
 		header.put((byte) 0);
 		header.put((byte) 0);
 		header.put((byte) 0);
-		header.putInt(indices.length);
+		header.putInt(getNumIndices());
 		header.putLong((long)super.data.limit());
 	}
 
@@ -185,7 +224,9 @@ public class PapaIndexBuffer extends PapaComponent {
 	@Override
 	public void flush() {
 		parent = null;
-		this.indices=null;
+		this.shortIndices=null;
+		this.intIndices=null;
+		this.originalData=null;
 	}
 
 }
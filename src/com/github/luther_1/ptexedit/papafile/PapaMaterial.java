@@ -46,13 +46,16 @@ public class PapaMaterial extends PapaComponent {
 	
 	public PapaMaterial(String name, short numVectorParams, short numTextureParams, short numMatrixParams, byte[] vectorParams,
 							byte[] textureParams, byte[] matrixParams, PapaFile p) {
+		this(name, numVectorParams, numTextureParams, numMatrixParams, ByteBuffer.wrap(vectorParams), ByteBuffer.wrap(textureParams),
+				ByteBuffer.wrap(matrixParams), p);
+	}
+	
+	PapaMaterial(String name, short numVectorParams, short numTextureParams, short numMatrixParams, ByteBuffer b1,
+					ByteBuffer b2, ByteBuffer b3, PapaFile p) {
 		this.parent=p;
 		this.name = name;
-		ByteBuffer b1 = ByteBuffer.wrap(vectorParams);
 		b1.order(ByteOrder.LITTLE_ENDIAN);
-		ByteBuffer b2 = ByteBuffer.wrap(textureParams);
 		b2.order(ByteOrder.LITTLE_ENDIAN);
-		ByteBuffer b3 = ByteBuffer.wrap(matrixParams);
 		b3.order(ByteOrder.LITTLE_ENDIAN);
 		decodeAll(numVectorParams,numTextureParams,numMatrixParams,b1,b2,b3);
 		
@@ -219,6 +222,7 @@ public class PapaMaterial extends PapaComponent {
 				try {
 					PapaTexture find = material.parent.getTexture(tex.getName());
 					tex = find;
+					material.parent.referencesChanged(material);
 				} catch(IllegalArgumentException e) {
 					return new BuildNotification[] {new BuildNotification(material, BuildNotification.ERROR, "Texture paramater expects texture named \""+tex.getName()+"\"")};
 				}
@@ -456,6 +460,14 @@ public class PapaMaterial extends PapaComponent {
 
 	}
 
+	@Override
+	protected PapaComponent[] getReferences() {
+		PapaComponent[] references = new PapaComponent[textureParameters.size()];
+		for(int i = 0;i<references.length;i++)
+			references[i] = textureParameters.get(i).tex;
+		return references;
+	}
+	
 	@Override
 	protected boolean isDependentOn(PapaComponent other) {
 		for(PapaVectorParameter p : vectorParameters)
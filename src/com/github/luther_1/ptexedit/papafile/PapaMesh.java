@@ -15,11 +15,14 @@ public class PapaMesh extends PapaComponent {
 	private ArrayList<PapaMaterialGroup> materialGroups = new ArrayList<PapaMaterialGroup>();
 	
 	public PapaMesh(PapaVertexBuffer papaVertexBuffer, PapaIndexBuffer papaIndexBuffer, short materialGroups, byte[] data, PapaFile p) {
+		this(papaVertexBuffer, papaIndexBuffer, materialGroups, ByteBuffer.wrap(data), p);
+	}
+	
+	PapaMesh(PapaVertexBuffer papaVertexBuffer, PapaIndexBuffer papaIndexBuffer, short materialGroups, ByteBuffer buf, PapaFile p) {
 		this.vBuffer = papaVertexBuffer;
 		this.iBuffer = papaIndexBuffer;
 		this.parent = p;
 		
-		ByteBuffer buf = ByteBuffer.wrap(data);
 		buf.order(ByteOrder.LITTLE_ENDIAN);
 		decodeAll(materialGroups, buf);
 	}
@@ -167,6 +170,16 @@ public class PapaMesh extends PapaComponent {
 
 	}
 
+	@Override
+	protected PapaComponent[] getReferences() {
+		PapaComponent[] references = new PapaComponent[materialGroups.size() + 2];
+		references[0] = vBuffer;
+		references[1] = iBuffer;
+		for(int i = 0;i<materialGroups.size();i++)
+			references[i + 2] = materialGroups.get(i).material;
+		return references;
+	}
+	
 	@Override
 	protected boolean isDependentOn(PapaComponent other) {
 		for(PapaMaterialGroup m : materialGroups)
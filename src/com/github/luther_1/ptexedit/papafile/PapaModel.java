@@ -34,10 +34,13 @@ public class PapaModel extends PapaComponent {
 		
 		
 		public PapaMeshBinding(String name, PapaMesh mesh, short numBoneMappings, float[][] meshToModel, byte[] data) {
+			this(name, mesh, numBoneMappings, meshToModel, ByteBuffer.wrap(data));
+		}
+		
+		PapaMeshBinding(String name, PapaMesh mesh, short numBoneMappings, float[][] meshToModel, ByteBuffer buf) {
 			this.name = name;
 			this.mesh = mesh;
 			this.meshToModel = meshToModel;
-			ByteBuffer buf = ByteBuffer.wrap(data);
 			buf.order(ByteOrder.LITTLE_ENDIAN);
 			decodeAll(numBoneMappings, buf);
 		}
@@ -204,6 +207,15 @@ public class PapaModel extends PapaComponent {
 
 	}
 
+	@Override
+	protected PapaComponent[] getReferences() {
+		PapaComponent[] references = new PapaComponent[meshBindings.size() + 1];
+		references[0] = skeleton;
+		for(int i = 0;i<meshBindings.size();i++)
+			references[i + 1] = meshBindings.get(i).mesh;
+		return references;
+	}
+	
 	@Override
 	protected boolean isDependentOn(PapaComponent other) {
 		for(PapaMeshBinding m : meshBindings)
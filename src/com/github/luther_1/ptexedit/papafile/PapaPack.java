@@ -0,0 +1,407 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A single file holding many papa files, so that a batch of them can be read with one open and one mapping.<br>
+ * The file starts with a 24 byte header (magic, version, entry count, reserved, directory offset). Entries follow, each
+ * aligned to eight bytes, and the directory comes last: for every entry in path order its UTF-8 path, offset, length and
+ * CRC32. Paths always use / and never start with it.
+ */
+public class PapaPack implements Closeable {
+	
+	public static final String EXTENSION = "papapack";
+	private static final int MAGIC = 0x4B415050; // "PPAK"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final byte[] PADDING = new byte[8];
+	
+	private final File file;
+	private FileChannel channel; // only kept open when the pack is too large to map at once
+	private ByteBuffer data;
+	private final String[] paths;
+	private final long[] offsets;
+	private final long[] lengths;
+	private final int[] checksums;
+	
+	private PapaPack(File file, FileChannel channel, ByteBuffer data, String[] paths, long[] offsets, long[] lengths, int[] checksums) {
+		this.file = file;
+		this.channel = channel;
+		this.data = data;
+		this.paths = paths;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.checksums = checksums;
+	}
+	
+	public static boolean isPack(File f) {
+		return f.isFile() && f.getName().toLowerCase().endsWith("."+EXTENSION);
+	}
+	
+	public static PapaPack open(Path path) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException("File "+path+" not found.");
+		}
+		try {
+			long size = channel.size();
+			ByteBuffer header = readRegion(channel, 0, HEADER_SIZE, size);
+			if(header.getInt()!=MAGIC)
+				throw new IOException(path.getFileName()+" is not a papa pack");
+			int version = header.getInt();
+			if(version!=VERSION)
+				throw new IOException("Unsupported papa pack version "+version);
+			int count = header.getInt();
+			header.getInt();
+			long directoryOffset = header.getLong();
+			if(count < 0 || directoryOffset < HEADER_SIZE || directoryOffset > size)
+				throw new IOException("Papa pack directory is corrupt");
+			
+			ByteBuffer directory = readRegion(channel, directoryOffset, (int) Math.min(size - directoryOffset, Integer.MAX_VALUE), size);
+			String[] paths = new String[count];
+			long[] offsets = new long[count];
+			long[] lengths = new long[count];
+			int[] checksums = new int[count];
+			for(int i = 0;i<count;i++) {
+				byte[] name = new byte[directory.getShort() & 0xffff];
+				directory.get(name);
+				paths[i] = new String(name, StandardCharsets.UTF_8);
+				offsets[i] = directory.getLong();
+				lengths[i] = directory.getLong();
+				checksums[i] = directory.getInt();
+				if(offsets[i] < HEADER_SIZE || lengths[i] < 0 || offsets[i] + lengths[i] > directoryOffset || lengths[i] > Integer.MAX_VALUE)
+					throw new IOException("Papa pack entry "+paths[i]+" is out of bounds");
+				if(i!=0 && paths[i-1].compareTo(paths[i]) >= 0)
+					throw new IOException("Papa pack directory is not sorted");
+			}
+			
+			if(size <= Integer.MAX_VALUE) { // the mapping remains valid after the channel is closed
+				ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				channel.close();
+				return new PapaPack(path.toFile(), null, data, paths, offsets, lengths, checksums);
+			}
+			return new PapaPack(path.toFile(), channel, null, paths, offsets, lengths, checksums);
+		} catch (BufferUnderflowException e) {
+			channel.close();
+			throw new IOException("Papa pack directory is corrupt");
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	private static ByteBuffer readRegion(FileChannel channel, long position, int length, long size) throws IOException {
+		if(position + length > size)
+			throw new IOException("Papa pack is truncated");
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		while(buf.hasRemaining())
+			if(channel.read(buf, position + buf.position()) < 0)
+				throw new IOException("Papa pack is truncated");
+		buf.flip();
+		return buf;
+	}
+	
+	static String normalisePath(String path) {
+		path = path.replace('\\', '/');
+		while(path.startsWith("/"))
+			path = path.substring(1);
+		return path;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public int getNumEntries() {
+		return paths.length;
+	}
+	
+	public String getEntryPath(int index) {
+		return paths[index];
+	}
+	
+	public String[] getEntryPaths() {
+		return paths.clone();
+	}
+	
+	public boolean contains(String path) {
+		return indexOf(path) >= 0;
+	}
+	
+	public long getEntryLength(String path) throws FileNotFoundException {
+		return lengths[checkedIndexOf(path)];
+	}
+	
+	public File getEntryFile(String path) { // a location for the entry as if the pack were a folder
+		return new File(file, normalisePath(path));
+	}
+	
+	private int indexOf(String path) {
+		return Arrays.binarySearch(paths, normalisePath(path));
+	}
+	
+	private int checkedIndexOf(String path) throws FileNotFoundException {
+		int index = indexOf(path);
+		if(index < 0)
+			throw new FileNotFoundException("Entry "+path+" not found in "+file.getName());
+		return index;
+	}
+	
+	public ByteBuffer getEntryData(String path) throws IOException { // a read only view of the entry, valid after the pack is closed
+		int index = checkedIndexOf(path);
+		ByteBuffer entry;
+		synchronized(this) { // only guards against close, the checksum is computed on the view without holding the lock
+			if(data!=null) {
+				ByteBuffer view = data.duplicate();
+				view.position((int) offsets[index]);
+				view.limit((int) (offsets[index] + lengths[index]));
+				entry = view.slice();
+			} else if(channel!=null) {
+				entry = channel.map(FileChannel.MapMode.READ_ONLY, offsets[index], lengths[index]);
+			} else
+				throw new IOException("Papa pack "+file.getName()+" is closed");
+		}
+		entry = entry.asReadOnlyBuffer();
+		
+		CRC32 crc = new CRC32();
+		crc.update(entry.duplicate());
+		if((int) crc.getValue()!=checksums[index])
+			throw new IOException("Entry "+path+" in "+file.getName()+" is corrupt");
+		return entry;
+	}
+	
+	public PapaFile readFile(String path) throws IOException {
+		return readFile(path, PapaFile.ALL);
+	}
+	
+	public PapaFile readFile(String path, int flags) throws IOException {
+		return new PapaFile(getEntryData(path), getEntryFile(path), flags);
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		data = null;
+		if(channel!=null)
+			channel.close();
+		channel = null;
+	}
+	
+	@Override
+	public String toString() {
+		return file.getName();
+	}
+	
+	public static int pack(Path directory, Path target) throws IOException { // every papa file under directory, by relative path
+		List<Path> files;
+		try(Stream<Path> walk = Files.walk(directory)) {
+			files = walk.filter((p) -> Files.isRegularFile(p) && p.getFileName().toString().toLowerCase().endsWith(".papa")).collect(Collectors.toList());
+		}
+		try(Writer writer = new Writer(target)) {
+			for(Path p : files)
+				writer.add(directory.relativize(p).toString(), p);
+		}
+		return files.size();
+	}
+	
+	public static class Writer implements Closeable {
+		
+		private FileChannel channel;
+		private final ArrayList<Entry> entries = new ArrayList<Entry>();
+		private final HashSet<String> names = new HashSet<String>();
+		private long position = HEADER_SIZE;
+		
+		public Writer(Path target) throws IOException {
+			channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			channel.position(HEADER_SIZE);
+		}
+		
+		public void add(String path, ByteBuffer data) throws IOException {
+			ChecksumChannel out = beginEntry(path);
+			try {
+				ByteBuffer buf = data.duplicate();
+				while(buf.hasRemaining())
+					out.write(buf);
+			} catch (IOException e) {
+				abortEntry();
+				throw e;
+			}
+			endEntry(path, out);
+		}
+		
+		public void add(String path, Path file) throws IOException {
+			ChecksumChannel out = beginEntry(path);
+			try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+				long size = in.size();
+				long done = 0;
+				while(done < size)
+					done+=in.transferTo(done, size - done, out);
+			} catch (IOException e) {
+				abortEntry();
+				throw e;
+			}
+			endEntry(path, out);
+		}
+		
+		public void add(String path, PapaFile file) throws IOException { // built straight into the pack
+			ChecksumChannel out = beginEntry(path);
+			try {
+				file.build(out);
+				if(!file.buildSuccessful())
+					throw new IOException("Failed to build "+path);
+			} catch (IOException e) {
+				abortEntry();
+				throw e;
+			}
+			endEntry(path, out);
+		}
+		
+		private ChecksumChannel beginEntry(String path) throws IOException {
+			if(channel==null)
+				throw new IOException("Papa pack writer is closed");
+			if(names.contains(normalisePath(path)))
+				throw new IllegalArgumentException("Papa pack already contains "+path);
+			if(normalisePath(path).getBytes(StandardCharsets.UTF_8).length > 0xffff)
+				throw new IllegalArgumentException("Path is too long: "+path);
+			return new ChecksumChannel(channel);
+		}
+		
+		private void abortEntry() throws IOException { // the next entry overwrites whatever was written
+			channel.position(position);
+		}
+		
+		private void endEntry(String path, ChecksumChannel out) throws IOException {
+			String name = normalisePath(path);
+			entries.add(new Entry(name, position, out.length, (int) out.crc.getValue()));
+			names.add(name);
+			position+=out.length;
+			int padding = (int) (-position & 7);
+			if(padding!=0)
+				channel.write(ByteBuffer.wrap(PADDING, 0, padding));
+			position+=padding;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if(channel==null)
+				return;
+			try {
+				entries.sort((a, b) -> a.path.compareTo(b.path));
+				ByteArrayOutputStream directory = new ByteArrayOutputStream();
+				for(Entry e : entries) {
+					byte[] name = e.path.getBytes(StandardCharsets.UTF_8);
+					ByteBuffer buf = ByteBuffer.allocate(2 + name.length + 20);
+					buf.order(ByteOrder.LITTLE_ENDIAN);
+					buf.putShort((short) name.length);
+					buf.put(name);
+					buf.putLong(e.offset);
+					buf.putLong(e.length);
+					buf.putInt(e.checksum);
+					directory.write(buf.array());
+				}
+				ByteBuffer dir = ByteBuffer.wrap(directory.toByteArray());
+				while(dir.hasRemaining())
+					channel.write(dir, position + dir.position());
+				channel.truncate(position + dir.capacity());
+				
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(entries.size());
+				header.putInt(0);
+				header.putLong(position);
+				header.flip();
+				while(header.hasRemaining())
+					channel.write(header, header.position());
+			} finally {
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+	
+	private static class Entry {
+		private final String path;
+		private final long offset;
+		private final long length;
+		private final int checksum;
+		
+		private Entry(String path, long offset, long length, int checksum) {
+			this.path = path;
+			this.offset = offset;
+			this.length = length;
+			this.checksum = checksum;
+		}
+	}
+	
+	private static class ChecksumChannel implements WritableByteChannel { // forwards to the pack, counting and checksumming what passes through
+		private final FileChannel channel;
+		private final CRC32 crc = new CRC32();
+		private long length = 0;
+		
+		private ChecksumChannel(FileChannel channel) {
+			this.channel = channel;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			ByteBuffer written = src.duplicate();
+			int n = channel.write(src);
+			written.limit(written.position() + n);
+			crc.update(written);
+			length+=n;
+			return n;
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+		
+		@Override
+		public void close() {} // the pack stays open for the next entry
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.luther_1.ptexedit.papafile.PapaSkeleton.PapaBone;
+
+/**
+ * Evaluates the world matrix of every bone in a skeleton, either at rest or for a frame of an animation.<br>
+ * Matrices are 16 floats, row major, and are written to the caller's array in skeleton bone order. The skeleton
+ * and animation are copied when the evaluator is made, later changes to either are not seen.
+ */
+public class PapaPoseEvaluator {
+	
+	public static final int MATRIX_FLOATS = 16;
+	private static final int TRANSFORM_FLOATS = 7;
+	private static final int FRAMES_PER_TASK = 8;
+	
+	private final int numBones;
+	private final int numFrames;
+	private final int[] order; // every bone after its parent
+	private final int[] parents; // skeleton index of each bone's parent, -1 for roots
+	private final int[] tracks; // animation bone of each skeleton bone, -1 if the bone is not animated
+	private final float[] rest; // location xyz and rotation xyzw of each bone
+	private final float[] shearScale; // 3x3 row major per bone
+	private final float[] transforms;
+	private final int animationBones;
+	
+	public PapaPoseEvaluator(PapaSkeleton skeleton) {
+		this(skeleton, null);
+	}
+	
+	public PapaPoseEvaluator(PapaSkeleton skeleton, PapaAnimation animation) {
+		numBones = skeleton.getNumBones();
+		parents = new int[numBones];
+		tracks = new int[numBones];
+		rest = new float[numBones * TRANSFORM_FLOATS];
+		shearScale = new float[numBones * 9];
+		
+		for(int i = 0;i<numBones;i++) {
+			PapaBone b = skeleton.getBone(i);
+			parents[i] = b.hasParent() ? skeleton.indexOf(b.getParent()) : -1;
+			System.arraycopy(b.getLocation(), 0, rest, i * TRANSFORM_FLOATS, 3);
+			System.arraycopy(b.getRotation(), 0, rest, i * TRANSFORM_FLOATS + 3, 4);
+			b.getShearScale(shearScale, i * 9);
+			tracks[i] = -1;
+		}
+		order = sortBones(parents);
+		
+		if(animation==null) {
+			numFrames = 0;
+			animationBones = 0;
+			transforms = new float[0];
+			return;
+		}
+		
+		numFrames = animation.getNumFrames();
+		animationBones = animation.getNumBones();
+		transforms = new float[numFrames * animationBones * TRANSFORM_FLOATS];
+		animation.getTransforms().get(transforms);
+		for(int i = 0;i<animationBones;i++) {
+			int bone = skeleton.getBoneIndex(animation.getBoneName(i));
+			if(bone!=-1 && tracks[bone]==-1)
+				tracks[bone] = i;
+		}
+	}
+	
+	private static int[] sortBones(int[] parents) {
+		int n = parents.length;
+		int[] order = new int[n];
+		int[] chain = new int[n];
+		boolean[] placed = new boolean[n];
+		int count = 0;
+		for(int i = 0;i<n;i++) {
+			int depth = 0;
+			for(int b = i; b!=-1 && !placed[b]; b = parents[b]) { // walk up to the first bone already placed, then place the chain top down
+				if(depth==n)
+					throw new IllegalArgumentException("Skeleton hierarchy contains a cycle at bone "+i);
+				chain[depth++] = b;
+			}
+			while(depth>0) {
+				int b = chain[--depth];
+				placed[b] = true;
+				order[count++] = b;
+			}
+		}
+		return order;
+	}
+	
+	public int getNumBones() {
+		return numBones;
+	}
+	
+	public int getNumFrames() {
+		return numFrames;
+	}
+	
+	public int getFrameSize() { // floats written per evaluated pose
+		return numBones * MATRIX_FLOATS;
+	}
+	
+	public int[] getEvaluationOrder() {
+		return order.clone();
+	}
+	
+	public int[] getParentIndices() {
+		return parents.clone();
+	}
+	
+	public void evaluateRest(float[] dst, int offset) {
+		checkBounds(dst, offset, 1);
+		evaluatePose(-1, dst, offset);
+	}
+	
+	public void evaluate(int frame, float[] dst, int offset) {
+		if(frame < 0 || frame >= numFrames)
+			throw new IndexOutOfBoundsException("Frame "+frame+" is out of bounds for "+numFrames+" frames");
+		checkBounds(dst, offset, 1);
+		evaluatePose(frame, dst, offset);
+	}
+	
+	public void evaluateAll(float[] dst, int offset) { // every frame, one after another
+		checkBounds(dst, offset, numFrames);
+		if(numFrames!=0)
+			ForkJoinPool.commonPool().invoke(new FrameRange(this, dst, offset, 0, numFrames));
+	}
+	
+	private void checkBounds(float[] dst, int offset, int frames) {
+		if(offset < 0 || offset + (long)frames * getFrameSize() > dst.length)
+			throw new IndexOutOfBoundsException("Buffer of "+dst.length+" floats cannot hold "+frames+" poses at offset "+offset);
+	}
+	
+	private void evaluatePose(int frame, float[] dst, int offset) {
+		int frameBase = frame * animationBones * TRANSFORM_FLOATS;
+		for(int k = 0;k<numBones;k++) {
+			int bone = order[k];
+			
+			float[] src = rest;
+			int t = bone * TRANSFORM_FLOATS;
+			if(frame!=-1 && tracks[bone]!=-1) {
+				src = transforms;
+				t = frameBase + tracks[bone] * TRANSFORM_FLOATS;
+			}
+			float lx = src[t], ly = src[t+1], lz = src[t+2];
+			float qx = src[t+3], qy = src[t+4], qz = src[t+5], qw = src[t+6];
+			
+			float len = qx*qx + qy*qy + qz*qz + qw*qw;
+			float s = len==0f ? 0f : 2f / len;
+			float r00 = 1f - s*(qy*qy + qz*qz), r01 = s*(qx*qy - qz*qw), r02 = s*(qx*qz + qy*qw);
+			float r10 = s*(qx*qy + qz*qw), r11 = 1f - s*(qx*qx + qz*qz), r12 = s*(qy*qz - qx*qw);
+			float r20 = s*(qx*qz - qy*qw), r21 = s*(qy*qz + qx*qw), r22 = 1f - s*(qx*qx + qy*qy);
+			
+			// local = translation * rotation * shearScale
+			float[] m = shearScale;
+			int c = bone * 9;
+			float a00 = r00*m[c] + r01*m[c+3] + r02*m[c+6], a01 = r00*m[c+1] + r01*m[c+4] + r02*m[c+7], a02 = r00*m[c+2] + r01*m[c+5] + r02*m[c+8];
+			float a10 = r10*m[c] + r11*m[c+3] + r12*m[c+6], a11 = r10*m[c+1] + r11*m[c+4] + r12*m[c+7], a12 = r10*m[c+2] + r11*m[c+5] + r12*m[c+8];
+			float a20 = r20*m[c] + r21*m[c+3] + r22*m[c+6], a21 = r20*m[c+1] + r21*m[c+4] + r22*m[c+7], a22 = r20*m[c+2] + r21*m[c+5] + r22*m[c+8];
+			
+			int o = offset + bone * MATRIX_FLOATS;
+			int parent = parents[bone];
+			if(parent==-1) {
+				dst[o]   = a00; dst[o+1] = a01; dst[o+2]  = a02; dst[o+3]  = lx;
+				dst[o+4] = a10; dst[o+5] = a11; dst[o+6]  = a12; dst[o+7]  = ly;
+				dst[o+8] = a20; dst[o+9] = a21; dst[o+10] = a22; dst[o+11] = lz;
+			} else { // world = parent world * local, the parent is always evaluated first
+				int p = offset + parent * MATRIX_FLOATS;
+				for(int row = 0;row<12;row+=4) {
+					float p0 = dst[p+row], p1 = dst[p+row+1], p2 = dst[p+row+2], p3 = dst[p+row+3];
+					dst[o+row]   = p0*a00 + p1*a10 + p2*a20;
+					dst[o+row+1] = p0*a01 + p1*a11 + p2*a21;
+					dst[o+row+2] = p0*a02 + p1*a12 + p2*a22;
+					dst[o+row+3] = p0*lx + p1*ly + p2*lz + p3;
+				}
+			}
+			dst[o+12] = 0f; dst[o+13] = 0f; dst[o+14] = 0f; dst[o+15] = 1f;
+		}
+	}
+	
+	private static class FrameRange extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private final PapaPoseEvaluator evaluator;
+		private final float[] dst;
+		private final int offset;
+		private final int start;
+		private final int end;
+		
+		private FrameRange(PapaPoseEvaluator evaluator, float[] dst, int offset, int start, int end) {
+			this.evaluator = evaluator;
+			this.dst = dst;
+			this.offset = offset;
+			this.start = start;
+			this.end = end;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= FRAMES_PER_TASK) {
+				int size = evaluator.getFrameSize();
+				for(int f = start;f<end;f++)
+					evaluator.evaluatePose(f, dst, offset + f * size);
+				return;
+			}
+			int mid = (start + end) >>> 1;
+			invokeAll(new FrameRange(evaluator, dst, offset, start, mid), new FrameRange(evaluator, dst, offset, mid, end));
+		}
+	}
+}
@@ -3,6 +3,7 @@ package com.github.luther_1.ptexedit.papafile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import com.github.luther_1.ptexedit.papafile.PapaFile.BuildNotification;
 
@@ -10,14 +11,29 @@ public class PapaSkeleton extends PapaComponent {
 	private PapaFile parent;
 	
 	private ArrayList<PapaBone> bones = new ArrayList<PapaBone>();
+	private HashMap<String, Integer> boneIndices = null; // name to the first bone holding it, null until needed or after a change
+	
+	private byte[] originalData; // the bones as they were read, written back as is until the hierarchy changes. null once modified.
 	
 	public PapaSkeleton(short numBones, byte[] data, PapaFile p) {
+		this(numBones, ByteBuffer.wrap(data), p);
+	}
+	
+	PapaSkeleton(short numBones, ByteBuffer buf, PapaFile p) {
 		this.parent = p;
-		ByteBuffer buf = ByteBuffer.wrap(data);
 		buf.order(ByteOrder.LITTLE_ENDIAN);
+		originalData = toArray(buf);
 		decodeAll(numBones, buf);
 	}
 	
+	public boolean isModified() {
+		return originalData==null;
+	}
+	
+	public void markModified() {
+		originalData = null;
+	}
+	
 	private void decodeAll(short numBones, ByteBuffer buf) {
 		for(int i = 0;i<numBones;i++) 
 			bones.add(new PapaBone(buf, this));
@@ -59,6 +75,8 @@ public class PapaSkeleton extends PapaComponent {
 		
 		public void setName(String name) {
 			this.name = name;
+			if(skeleton!=null)
+				skeleton.boneIndices = null;
 		}
 		
 		private void findParentBone() {
@@ -73,8 +91,30 @@ public class PapaSkeleton extends PapaComponent {
 			return parentBone;
 		}
 		
+		public float[] getLocation() {
+			return location.clone();
+		}
+		
+		public float[] getRotation() { // xyzw
+			return rotation.clone();
+		}
+		
+		public void getShearScale(float[] dst, int offset) { // 3x3, row major
+			for(int y = 0;y<3;y++)
+				for(int x = 0;x<3;x++)
+					dst[offset++] = shearScale[x][y];
+		}
+		
+		public void getBindToBone(float[] dst, int offset) { // 4x4, row major
+			for(int y = 0;y<4;y++)
+				for(int x = 0;x<4;x++)
+					dst[offset++] = bindToBone[x][y];
+		}
+		
 		public void setParent(PapaBone other) {
 			parentBone = other;
+			if(skeleton!=null)
+				skeleton.markModified();
 		}
 		
 		private PapaSkeleton getSkeleton() {
@@ -153,17 +193,43 @@ public class PapaSkeleton extends PapaComponent {
 		return bones.get(index);
 	}
 	
+	public int getNumBones() {
+		return bones.size();
+	}
+	
+	public int indexOf(PapaBone bone) {
+		return bones.indexOf(bone);
+	}
+	
+	public int getBoneIndex(String name) {
+		if(boneIndices==null) {
+			boneIndices = new HashMap<String, Integer>();
+			for(int i = 0;i<bones.size();i++)
+				boneIndices.putIfAbsent(bones.get(i).name, i);
+		}
+		Integer index = boneIndices.get(name);
+		return index==null ? -1 : index;
+	}
+	
+	public PapaBone getBone(String name) {
+		return getBone(getBoneIndex(name));
+	}
+	
 	public void addBone(PapaBone bone) {
 		if(bone.getSkeleton()!=null)
 			throw new IllegalStateException("Bone "+bone.getName()+" is already attached to a skeleton");
 		bones.add(bone);
 		bone.setSkeleton(this);
+		boneIndices = null;
+		markModified();
 	}
 	
 	public void removeBone(PapaBone bone) {
 		if( ! bones.remove(bone))
 			throw new IllegalArgumentException("Bone " + bone.getName() + " is not owned by this skeleton");
 		bone.setSkeleton(null);
+		boneIndices = null;
+		markModified();
 	}
 
 	@Override
@@ -177,7 +243,7 @@ public class PapaSkeleton extends PapaComponent {
 
 	@Override
 	protected int headerSize() {
-		return 8;
+		return 16;
 	}
 
 	@Override
@@ -197,9 +263,15 @@ public class PapaSkeleton extends PapaComponent {
 		byte[] bodyBytes = new byte[bodySize()];
 		data = ByteBuffer.wrap(bodyBytes);
 		data.order(ByteOrder.LITTLE_ENDIAN);
-		for(PapaBone b : bones) {
-			b.build();
-			super.data.put(b.getDataBytes());
+		if(originalData!=null) {
+			data.put(originalData);
+			for(int i = 0;i<bones.size();i++) // string indices change between builds, the rest of each bone is unchanged
+				data.putShort(i * 132, (short) parent.getOrMakeString(bones.get(i).name));
+		} else {
+			for(PapaBone b : bones) {
+				b.build();
+				super.data.put(b.getDataBytes());
+			}
 		}
 		
 		header.putShort((short) bones.size());
@@ -278,6 +350,7 @@ public class PapaSkeleton extends PapaComponent {
 			b.flush();
 		bones.clear();
 		bones = null;
+		originalData = null;
 
 	}
 
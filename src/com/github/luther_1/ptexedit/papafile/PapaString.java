@@ -43,7 +43,10 @@ public class PapaString extends PapaComponent{
 	}
 	
 	public void setValue(String value) {
+		String oldValue = this.value;
 		this.value = value;
+		if(papaFile!=null)
+			papaFile.stringChanged(this, oldValue);
 	}
 	
 	public int getPadding() {
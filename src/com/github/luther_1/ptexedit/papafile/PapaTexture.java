@@ -20,14 +20,22 @@
 package com.github.luther_1.ptexedit.papafile;
 
 import java.awt.image.BufferedImage;
-import java.awt.Color;
+import java.awt.image.DataBufferInt;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 import com.github.luther_1.ptexedit.papafile.PapaFile.BuildNotification;
 import com.github.memo33.jsquish.Squish;
@@ -58,10 +66,37 @@ public class PapaTexture extends PapaComponent{
 	private boolean isLinked;
 	private byte[] data = new byte[0];
 	
-	private BufferedImage [] textures, red, green, blue, alpha, luminance;
+	private AtomicReferenceArray<BufferedImage> textures; // mips are decoded from data the first time they are requested
+	private Object[] decodeLocks;
+	private AtomicReferenceArray<BufferedImage> red, green, blue, alpha, luminance; // channels are made from the decoded image on request, under the same locks
 	
 	private TextureConverter textureConverter;
 	
+	private static volatile int parallelDecodeThreshold = 512 * 512; // images with at least this many pixels are decoded in bands on the common pool
+	private static final int PIXELS_PER_DECODE_TASK = 64 * 1024;
+	
+	private static final int PIXELS_PER_ENCODE_STRIP = 64 * 1024;
+	private static final AtomicInteger ACTIVE_ENCODERS = new AtomicInteger(); // DXT images being compressed right now, by any thread
+	private static final ThreadLocal<SoftReference<byte[]>> ENCODE_SCRATCH = new ThreadLocal<SoftReference<byte[]>>(); // pixels handed to squish, kept between mips and images
+	
+	private static byte[] getEncodeScratch(int length) {
+		SoftReference<byte[]> ref = ENCODE_SCRATCH.get();
+		byte[] scratch = ref==null ? null : ref.get();
+		if(scratch==null || scratch.length < length) {
+			scratch = new byte[length];
+			ENCODE_SCRATCH.set(new SoftReference<byte[]>(scratch));
+		}
+		return scratch;
+	}
+	
+	public static void setParallelDecodeThreshold(int pixels) {
+		parallelDecodeThreshold = pixels;
+	}
+	
+	public static int getParallelDecodeThreshold() {
+		return parallelDecodeThreshold;
+	}
+	
 	public int getNumImages() {
 		checkLinked(false);
 		return numImages;
@@ -69,52 +104,42 @@ public class PapaTexture extends PapaComponent{
 	
 	public BufferedImage getMip(int i) {
 		checkLinked(false);
-		return textures[i+1];
+		return decodeImage(i+1);
 	}
 	
 	public BufferedImage getImage() {
 		checkLinked(false);
-		return textures[0];
+		return decodeImage(0);
 	}
 	
 	public BufferedImage getImage(int index) { // skips over mip vs image check.
 		checkLinked(false);
-		return textures[index];
+		return decodeImage(index);
 	}
 	
 	public BufferedImage asRed(int index) {
 		checkLinked(false);
-		if(red[index]==null)
-			red[index] = textureConverter.asRed(textures[index]);
-		return red[index];
+		return decodeChannel(red, index, textureConverter::asRed);
 	}
 	
 	public BufferedImage asGreen(int index) {
 		checkLinked(false);
-		if(green[index]==null)
-			green[index] = textureConverter.asGreen(textures[index]);
-		return green[index];
+		return decodeChannel(green, index, textureConverter::asGreen);
 	}
 	
 	public BufferedImage asBlue(int index) {
 		checkLinked(false);
-		if(blue[index]==null)
-			blue[index] = textureConverter.asBlue(textures[index]);
-		return blue[index];
+		return decodeChannel(blue, index, textureConverter::asBlue);
 	}
 
 	public BufferedImage asAlpha(int index) {
 		checkLinked(false);
-		if(alpha[index]==null)
-			alpha[index] = textureConverter.asAlpha(textures[index]);
-		return alpha[index];
+		return decodeChannel(alpha, index, textureConverter::asAlpha);
 	}
 	
 	public BufferedImage asLuminance(int index) {
 		checkLinked(false);
-		if(luminance[index]==null)
-			luminance[index] = textureConverter.asLuminance(textures[index]);
-		return luminance[index];
+		return decodeChannel(luminance, index, textureConverter::asLuminance);
 	}
 	
 	public boolean supportsAlpha() {
@@ -127,12 +152,20 @@ public class PapaTexture extends PapaComponent{
 		return formats[format - 1]; // format for texture indexed starting at 1
 	}
 	
+	static String getFormatName(byte format) {
+		if(format < 1 || format > formats.length)
+			return "Unknown("+format+")";
+		return formats[format - 1];
+	}
+	
 	public String getName() {
 		return name;
 	}
 	
 	public void setName(String name) {
 		this.name = name;
+		if(parent!=null)
+			parent.textureRenamed();
 	}
 	
 	/*public void adjustLinkedTextureName(String newName) { TODO: remove if not necessary (might've become obsolete)
@@ -168,12 +201,12 @@ public class PapaTexture extends PapaComponent{
 	
 	public int getWidth(int mipLevel) {
 		checkLinked(false);
-		return textures[mipLevel].getWidth();
+		return Math.max(width >> mipLevel, 1);
 	}
 	
 	public int getHeight(int mipLevel) {
 		checkLinked(false);
-		return textures[mipLevel].getHeight();
+		return Math.max(height >> mipLevel, 1);
 	}
 	
 	public PapaFile getParent() {
@@ -236,6 +269,10 @@ public class PapaTexture extends PapaComponent{
 			getLinkedTexture(); // calculate linked file variable
 	}
 	
+	PapaTexture(String name, byte format, byte mips, boolean srgb, short width, short height, ByteBuffer data, PapaFile p) throws IOException {
+		this(name, format, mips, srgb, width, height, toArray(data), p);
+	}
+	
 	public PapaTexture(String name, byte format, byte mips, boolean srgb, short width, short height, byte[] data, PapaFile p) throws IOException {
 		this.name = name;
 		this.format = format;
@@ -256,7 +293,7 @@ public class PapaTexture extends PapaComponent{
 			throw new IOException("Invalid name index");
 		}
 		
-		decodeAll(new TextureInfo(this.mips,this.width,this.height), buf, textureConverter);
+		checkData(new TextureInfo(this.mips,this.width,this.height), buf, textureConverter);
 		
 		System.out.println("Loaded "+this.width+" by "+this.height+" image named "+this.name+" of format "+getFormat()+" with "+this.mips+" mipmaps. Data size: "+data.length+".");
 	}
@@ -319,9 +356,6 @@ public class PapaTexture extends PapaComponent{
 		this.height = (short) height;
 		
 		this.data = textureConverter.encode(images);
-		ByteBuffer buf = ByteBuffer.wrap(data);
-		buf.order(ByteOrder.LITTLE_ENDIAN);
-		decodeAll(new TextureInfo(mipCount, width, height),buf,textureConverter);
 	}
 	
 	private boolean testPowerOfTwo(int value) {
@@ -360,12 +394,15 @@ public class PapaTexture extends PapaComponent{
 	}
 
 	private void createTextureArrays(int amount) {
-		this.textures = new BufferedImage[amount];
-		this.red = new BufferedImage[amount];
-		this.green = new BufferedImage[amount];
-		this.blue = new BufferedImage[amount];
-		this.alpha = new BufferedImage[amount];
-		this.luminance = new BufferedImage[amount];
+		this.textures = new AtomicReferenceArray<BufferedImage>(amount);
+		this.decodeLocks = new Object[amount];
+		for(int i =0;i<amount;i++)
+			this.decodeLocks[i] = new Object();
+		this.red = new AtomicReferenceArray<BufferedImage>(amount);
+		this.green = new AtomicReferenceArray<BufferedImage>(amount);
+		this.blue = new AtomicReferenceArray<BufferedImage>(amount);
+		this.alpha = new AtomicReferenceArray<BufferedImage>(amount);
+		this.luminance = new AtomicReferenceArray<BufferedImage>(amount);
 	}
 	
 	private TextureConverter getInstance(String format) throws IOException {
@@ -389,20 +426,42 @@ public class PapaTexture extends PapaComponent{
 		}
 	}
 	
-	private void decodeAll(TextureInfo info, ByteBuffer buf, TextureConverter converter) throws IOException {
-		
-		checkData(info,buf,converter);
-		
-		this.textures[0] = converter.decode(buf, info);
-		for(int i=1;i<=info.mips;i++) {
-			
-			int mipScale = (int) Math.pow(2, i);
-			int width = Math.max(info.width / mipScale,1);
-			int height = Math.max(info.height / mipScale,1);
-			this.textures[i] = converter.decode(buf, new TextureInfo(info.mips,width,height));
+	private BufferedImage decodeImage(int index) {
+		BufferedImage image = textures.get(index);
+		if(image!=null)
+			return image;
+		synchronized(decodeLocks[index]) {
+			image = textures.get(index);
+			if(image==null) {
+				image = textureConverter.decode(getImageData(index), new TextureInfo(mips, getWidth(index), getHeight(index)));
+				textures.set(index, image);
+			}
+			return image;
+		}
+	}
+	
+	private BufferedImage decodeChannel(AtomicReferenceArray<BufferedImage> channel, int index, Function<BufferedImage, BufferedImage> converter) {
+		BufferedImage image = channel.get(index);
+		if(image!=null)
+			return image;
+		synchronized(decodeLocks[index]) {
+			image = channel.get(index);
+			if(image==null) {
+				image = converter.apply(decodeImage(index));
+				channel.set(index, image);
+			}
+			return image;
 		}
 	}
 	
+	private ByteBuffer getImageData(int index) { // each caller gets its own view so mips can be decoded concurrently
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		if(index!=0)
+			buf.position(textureConverter.calcSize(width, height, index - 1));
+		return buf;
+	}
+	
 	private void checkData(TextureInfo info, ByteBuffer buf, TextureConverter converter) throws IOException {
 		int expectedSize = converter.calcSize(info.width, info.height, info.mips);
 		int actualSize = buf.limit();
@@ -440,7 +499,9 @@ public class PapaTexture extends PapaComponent{
 	@Override
 	public void flush() {
 		parent = linkedFile = null;
-		textures = red = green = blue = alpha = null;
+		textures = null;
+		decodeLocks = null;
+		red = green = blue = alpha = luminance = null;
 		textureConverter = null;
 		data = null;
 	}
@@ -465,6 +526,11 @@ public class PapaTexture extends PapaComponent{
 		return ceilEight(this.data.length);
 	}
 	
+	@Override
+	protected Object getBodySource() {
+		return isLinked ? null : data;
+	}
+	
 	private class TextureInfo {
 		
 		public final int mips;
@@ -478,9 +544,68 @@ public class PapaTexture extends PapaComponent{
 		}
 	}
 	
+	private class DecodeBand extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		private final TextureConverter converter;
+		private final ByteBuffer buf;
+		private final int[] pixels;
+		private final int width, height;
+		private final int start, end;
+		private final int rowsPerTask;
+		
+		private DecodeBand(TextureConverter converter, ByteBuffer buf, int[] pixels, int width, int height, int start, int end, int rowsPerTask) {
+			this.converter = converter;
+			this.buf = buf;
+			this.pixels = pixels;
+			this.width = width;
+			this.height = height;
+			this.start = start;
+			this.end = end;
+			this.rowsPerTask = rowsPerTask;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end - start <= rowsPerTask) {
+				ByteBuffer band = buf.duplicate(); // every band reads through its own position
+				band.order(ByteOrder.LITTLE_ENDIAN);
+				band.position(buf.position() + start * converter.rowSize(width));
+				converter.decodeRows(band, pixels, width, height, start, end);
+				return;
+			}
+			int mid = (start + end) >>> 1;
+			invokeAll(new DecodeBand(converter, buf, pixels, width, height, start, mid, rowsPerTask),
+					new DecodeBand(converter, buf, pixels, width, height, mid, end, rowsPerTask));
+		}
+	}
+	
 	private abstract class TextureConverter {
 		
-		public abstract BufferedImage decode(ByteBuffer buf, TextureInfo info);
+		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
+			int width = info.width;
+			int height = info.height;
+			int rows = rowCount(height);
+			
+			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = ((DataBufferInt) b.getRaster().getDataBuffer()).getData(); // ARGB, one int per pixel
+			
+			if((long)width * height < parallelDecodeThreshold || ForkJoinPool.getCommonPoolParallelism() < 2) {
+				decodeRows(buf, pixels, width, height, 0, rows);
+			} else {
+				int rowsPerTask = (int) Math.max(1, (long)PIXELS_PER_DECODE_TASK * rows / ((long)width * height));
+				ForkJoinPool.commonPool().invoke(new DecodeBand(this, buf, pixels, width, height, 0, rows, rowsPerTask));
+			}
+			return b;
+		}
+		
+		protected int rowCount(int height) { // rows of data that can be decoded independently of each other
+			return height;
+		}
+		
+		protected abstract int rowSize(int width); // bytes per row
+		
+		protected abstract void decodeRows(ByteBuffer buf, int[] pixels, int width, int height, int start, int end); // buf is positioned at row start
 		
 		public abstract int calcSize(int width, int height, int mips);
 		
@@ -488,6 +613,17 @@ public class PapaTexture extends PapaComponent{
 		
 		protected abstract void encodeImage(BufferedImage input, ByteBuffer writer);
 		
+		protected int[] getARGB(BufferedImage input) { // packed ARGB row after row, always a new array
+			return getARGB(input, 0, input.getHeight(), null);
+		}
+		
+		protected int[] getARGB(BufferedImage input, int y, int rows, int[] dst) { // dst is allocated if null
+			int width = input.getWidth();
+			if(input.getType()==BufferedImage.TYPE_INT_ARGB) // already stored as ARGB, copied by rows without going through the colour model
+				return (int[]) input.getRaster().getDataElements(0, y, width, rows, dst);
+			return input.getRGB(0, y, width, rows, dst, 0, width);
+		}
+		
 		public byte[] encode(BufferedImage[] input) {
 			int images = input.length;
 			int width = input[0].getWidth();
@@ -561,37 +697,30 @@ public class PapaTexture extends PapaComponent{
 	private class R8G8B8A8 extends TextureConverter {
 
 		@Override
-		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
-			int width = info.width;
-			int height = info.height;
-			int length = width*height;
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			int[] array = new int[width*height];
-			for(int i = 0;i<length;i++) {
-				int tmp=0;
-				tmp |=(buf.get() & 0b11111111)<<16;
-				tmp |=(buf.get() & 0b11111111)<<8;
-				tmp |=(buf.get() & 0b11111111);
-				tmp |=(buf.get() & 0b11111111)<<24;
-				array[i] = tmp;
-			}
-			b.setRGB(0, 0, width, height, array, 0, width);
-			return b;
+		protected int rowSize(int width) {
+			return width * 4;
+		}
+		
+		@Override
+		protected void decodeRows(ByteBuffer buf, int[] pixels, int width, int height, int start, int end) {
+			int offset = start * width;
+			int length = (end - start) * width;
+			buf.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(pixels, offset, length); // RGBA as one big endian int
+			for(int i = offset;i<offset + length;i++)
+				pixels[i] = Integer.rotateRight(pixels[i], 8); // RGBA -> ARGB
 		}
 		
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
-			int width = input.getWidth();
-			int height = input.getHeight();
-			int[] rgbArray = input.getRGB(0, 0, width, height, null, 0, input.getWidth());
-			for(int i : rgbArray) {// ARGB -> RGBA
-				writer.put((byte)(i>>>16));
-				writer.put((byte)(i>>>8));
-				writer.put((byte)(i));
-				writer.put((byte)(i>>>24));
-			}
+			int[] rgbArray = getARGB(input);
+			for(int i = 0;i<rgbArray.length;i++)
+				rgbArray[i] = Integer.rotateLeft(rgbArray[i], 8); // ARGB -> RGBA
+			putBigEndian(rgbArray, writer);
+		}
+		
+		protected void putBigEndian(int[] values, ByteBuffer writer) {
+			writer.duplicate().order(ByteOrder.BIG_ENDIAN).asIntBuffer().put(values);
+			writer.position(writer.position() + values.length * 4);
 		}
 		
 		@Override
@@ -618,15 +747,10 @@ public class PapaTexture extends PapaComponent{
 		
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
-			int width = input.getWidth();
-			int height = input.getHeight();
-			int[] rgbArray = input.getRGB(0, 0, width, height, null, 0, input.getWidth());
-			for(int i : rgbArray) {// ARGB -> RRGB
-				writer.put((byte)(i>>>16));
-				writer.put((byte)(i>>>8));
-				writer.put((byte)(i));
-				writer.put((byte)0xff);
-			}
+			int[] rgbArray = getARGB(input);
+			for(int i = 0;i<rgbArray.length;i++)
+				rgbArray[i] = rgbArray[i]<<8 | 0b11111111; // ARGB -> RGBX
+			putBigEndian(rgbArray, writer);
 		}
 		
 		@Override
@@ -644,34 +768,15 @@ public class PapaTexture extends PapaComponent{
 	private class B8G8R8A8 extends R8G8B8A8 {
 
 		@Override
-		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
-			int width = info.width;
-			int height = info.height;
-			int length = width*height;
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			int[] array = new int[width*height];
-			for(int i = 0;i<length;i++) {
-				array[i] = buf.getInt();
-			}
-			
-			b.setRGB(0, 0, width, height, array, 0, width);
-			return b;
-			
+		protected void decodeRows(ByteBuffer buf, int[] pixels, int width, int height, int start, int end) {
+			buf.asIntBuffer().get(pixels, start * width, (end - start) * width); // BGRA read little endian is already ARGB
 		}
 		
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
-			int width = input.getWidth();
-			int height = input.getHeight();
-			int[] rgbArray = input.getRGB(0, 0, width, height, null, 0, input.getWidth());
-			for(int i : rgbArray) {// ARGB -> BGRA
-				writer.put((byte)i);
-				writer.put((byte)(i>>>8));
-				writer.put((byte)(i>>>16));
-				writer.put((byte)(i>>>24));
-			}
+			int[] rgbArray = getARGB(input);
+			writer.asIntBuffer().put(rgbArray); // ARGB written little endian is BGRA
+			writer.position(writer.position() + rgbArray.length * 4);
 		}
 		@Override
 		public byte formatIndex() {
@@ -694,44 +799,129 @@ public class PapaTexture extends PapaComponent{
 			this.method = method;
 		}
 		
-		protected byte[] imageToByteArray(BufferedImage input) {
+		protected byte[] compress(byte[] rgba, int width, int height, CompressionType type) {
+			int active = ACTIVE_ENCODERS.incrementAndGet();
+			try {
+				if(active > 1) // other threads are encoding as well, splitting this image across the common pool too would oversubscribe the cores
+					return Squish.compressImage(rgba, width, height, new byte[] {}, type, method);
+				return Squish.compressImageParallel(rgba, width, height, new byte[] {}, type, method);
+			} finally {
+				ACTIVE_ENCODERS.decrementAndGet();
+			}
+		}
+		
+		protected byte[] imageToByteArray(BufferedImage input) { // BGRA, 4 bytes per pixel. The array is reused by the next call on this thread
 			int width = input.getWidth();
 			int height = input.getHeight();
 			int size = input.getWidth() * input.getHeight();
-			byte[] ret = new byte[size * 4];
-			for(int y=0;y<height;y++)
-				for(int x=0;x<width;x++) {
-					int data = input.getRGB(x, y);
-					for(int i =3;i>=0;i--)
-						ret[4*(x+y*width) + i] = (byte)(data>>>i*8);
-				}
+			byte[] ret = getEncodeScratch(size * 4);
+			switch(input.getType()) {
+				case BufferedImage.TYPE_4BYTE_ABGR:
+					input.getRaster().getDataElements(0, 0, width, height, ret); // RGBA
+					for(int i = 0;i<size * 4;i+=4) {
+						byte r = ret[i];
+						ret[i] = ret[i + 2];
+						ret[i + 2] = r;
+					}
+					break;
+				case BufferedImage.TYPE_3BYTE_BGR:
+					input.getRaster().getDataElements(0, 0, width, height, ret); // RGB, spread out to 4 bytes from the back so nothing is overwritten before it is read
+					for(int i = size - 1;i>=0;i--) {
+						byte r = ret[3 * i];
+						byte g = ret[3 * i + 1];
+						byte b = ret[3 * i + 2];
+						ret[4 * i] = b;
+						ret[4 * i + 1] = g;
+						ret[4 * i + 2] = r;
+						ret[4 * i + 3] = (byte) 0xff;
+					}
+					break;
+				default:
+					IntBuffer out = ByteBuffer.wrap(ret).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(); // ARGB written little endian is BGRA
+					int rows = Math.max(1, PIXELS_PER_ENCODE_STRIP / Math.max(width, 1));
+					int[] strip = new int[rows * width];
+					for(int y = 0;y<height;y+=rows) {
+						int count = Math.min(rows, height - y);
+						out.put(getARGB(input, y, count, strip), 0, count * width);
+					}
+			}
 			return ret;
 		}
 		
-		public Color[] decodeColourMap(byte[] data) {
-			Color[] colours = new Color[4];
-			int colour0 = ((data[0]&0b11111111) | data[1]<<8) & 0b11111111_11111111;
-			int colour1 = ((data[2]&0b11111111) | data[3]<<8) & 0b11111111_11111111;
-			colours[0] = new Color(((colour0>>>11 & 0b00011111)*8), (((colour0>>>5) & 0b00111111)*4), (((colour0) & 0b00011111)*8));
-			colours[1] = new Color(((colour1>>>11 & 0b00011111)*8), (((colour1>>>5) & 0b00111111)*4), (((colour1) & 0b00011111)*8));
-			if(colour0>colour1) {
-				colours[2] = new Color(	(float)(2 * colours[0].getRed() + 		colours[1].getRed()) / 765f, // 765 = 3*255
-										(float)(2 * colours[0].getGreen() + 	colours[1].getGreen()) / 765f,
-										(float)(2 * colours[0].getBlue() + 		colours[1].getBlue()) / 765f);
-				colours[3] = new Color(	(float)(colours[0].getRed() + 		2 * colours[1].getRed()) / 765f,
-										(float)(colours[0].getGreen() + 	2 * colours[1].getGreen()) / 765f,
-										(float)(colours[0].getBlue() + 		2 * colours[1].getBlue()) / 765f);
+		@Override
+		protected int rowCount(int height) { // one row of 4x4 blocks
+			return (height + 3) / 4;
+		}
+		
+		@Override
+		protected int rowSize(int width) {
+			return (width + 3) / 4 * chunkByteSize;
+		}
+		
+		@Override
+		protected void decodeRows(ByteBuffer buf, int[] pixels, int width, int height, int start, int end) {
+			int widthAssign = Math.min(4, width);
+			int heightAssign = Math.min(4, height);
+			int[] colours = new int[4];
+			int[] alphaValues = new int[16];
+			int[] alphaMap = new int[8];
+			Arrays.fill(alphaValues, 0b11111111); // formats without alpha data leave this untouched
+			
+			for(int y = start * 4;y<end * 4;y+=4) {
+				for(int x =0;x<width;x+=4) {
+					decodeAlphaMap(buf, alphaValues, alphaMap);
+					
+					int colour0 = buf.getShort() & 0b11111111_11111111;
+					int colour1 = buf.getShort() & 0b11111111_11111111;
+					decodeColourMap(colour0, colour1, colours);
+					// 4x4 segment
+					int bits = buf.getInt();
+					for(int yy=0;yy<heightAssign;yy++) {
+						int row = (y + yy) * width + x;
+						for(int xx=0;xx<widthAssign;xx++) {
+							int colourIndex = bits & 0b11;
+							if(yy + y < height && xx + x < width)
+								pixels[row + xx] = (colours[colourIndex] & 0b11111111_11111111_11111111) | alphaValues[yy*4+xx]<<24;
+							bits>>>=2;
+						}
+					}
+				}
+			}
+		}
+		
+		protected void decodeColourMap(int colour0, int colour1, int[] colours) { // RGB565 endpoints to opaque ARGB
+			int r0 = (colour0>>>11 & 0b00011111)*8, g0 = ((colour0>>>5) & 0b00111111)*4, b0 = ((colour0) & 0b00011111)*8;
+			int r1 = (colour1>>>11 & 0b00011111)*8, g1 = ((colour1>>>5) & 0b00111111)*4, b1 = ((colour1) & 0b00011111)*8;
+			colours[0] = toARGB(r0, g0, b0);
+			colours[1] = toARGB(r1, g1, b1);
+			if(colour0>colour1 || ! supportsPunchThrough()) {
+				colours[2] = toARGB(	toComponent((float)(2 * r0 + r1) / 765f), // 765 = 3*255
+										toComponent((float)(2 * g0 + g1) / 765f),
+										toComponent((float)(2 * b0 + b1) / 765f));
+				colours[3] = toARGB(	toComponent((float)(r0 + 2 * r1) / 765f),
+										toComponent((float)(g0 + 2 * g1) / 765f),
+										toComponent((float)(b0 + 2 * b1) / 765f));
 			} else {
-				colours[2] = new Color(	(float)(colours[0].getRed() + 		colours[1].getRed()) / 510f, // 5 = 2*255
-										(float)(colours[0].getGreen() + 	colours[1].getGreen()) / 510f,
-										(float)(colours[0].getBlue() + 		colours[1].getBlue()) / 510f);
-				colours[3] = new Color(0f, 0f, 0f);
-				
+				colours[2] = toARGB(	toComponent((float)(r0 + r1) / 510f), // 510 = 2*255
+										toComponent((float)(g0 + g1) / 510f),
+										toComponent((float)(b0 + b1) / 510f));
+				colours[3] = toARGB(0, 0, 0);
 			}
-			return colours;
 		}
 		
-		public abstract int[] decodeAlphaMap(byte[] bytes);
+		protected boolean supportsPunchThrough() { // whether colour0 <= colour1 selects the three colour mode
+			return true;
+		}
+		
+		private int toARGB(int r, int g, int b) {
+			return 0b11111111_00000000_00000000_00000000 | r<<16 | g<<8 | b;
+		}
+		
+		private int toComponent(float value) { // rounds the same way as Color(float, float, float)
+			return (int)(value*255+0.5);
+		}
+		
+		protected abstract void decodeAlphaMap(ByteBuffer buf, int[] alphaValues, int[] alphaMap);
 		
 		@Override
 		public int calcSize(int width, int height, int mips) {
@@ -753,48 +943,12 @@ public class PapaTexture extends PapaComponent{
 	private class DXT1 extends DXT {
 		
 		
-		@Override
-		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
-			Color [] colours;
-		
-			int width = info.width;
-			int height = info.height;
-			
-			int widthAssign = Math.min(4, width);
-			int heightAssign = Math.min(4, height);
-			byte[] colourBuffer = new byte[4];
-			
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			//64 bits per 4x4 segment
-			for(int y = 0;y<height;y+=4) {
-				for(int x =0;x<width;x+=4) {
-					
-					buf.get(colourBuffer);
-					colours = decodeColourMap(colourBuffer);
-					// 4x4 segment
-					int bits = buf.getInt();
-					for(int yy=0;yy<heightAssign;yy++) {
-						for(int xx=0;xx<widthAssign;xx++) {
-							int colourIndex = (int) (bits & 0b11);
-							if(yy + y < height && xx + x < width)
-								b.setRGB(x+xx, y+yy, colours[colourIndex].getRGB());
-							bits>>>=2;
-						}
-					}
-				}
-			}
-			return b;
-		}
-		
-		
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
 			int width = input.getWidth();
 			int height = input.getHeight();
 			byte[] in = imageToByteArray(input);
-			byte[] result = Squish.compressImage(in, width, height, new byte[] {}, CompressionType.DXT1, method);
+			byte[] result = compress(in, width, height, CompressionType.DXT1);
 			writer.put(result);
 		}
 
@@ -810,9 +964,7 @@ public class PapaTexture extends PapaComponent{
 
 
 		@Override
-		public int[] decodeAlphaMap(byte[] bytes) {
-			throw new UnsupportedOperationException("DXT1 contains no alpha data");
-		}
+		protected void decodeAlphaMap(ByteBuffer buf, int[] alphaValues, int[] alphaMap) {} // 64 bits per 4x4 segment, colour only
 		
 	}
 	
@@ -820,83 +972,30 @@ public class PapaTexture extends PapaComponent{
 		
 		{chunkByteSize = 16;}
 		
-		@Override
-		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
-			Color [] colours;
-			int[] alphaValues;
-			int width = info.width;
-			int height = info.height;
-			byte[] alphaBuf = new byte[8];
-			byte[] colourBuf = new byte[4];
-			
-			int widthAssign = Math.min(4, width);
-			int heightAssign = Math.min(4, height);
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			//128 bits per 4x4 segment
-			for(int y = 0;y<height;y+=4) {
-				for(int x =0;x<width;x+=4) {
-					//if(br.index() + 8 > br.size()) // DXT3 is broken for papatran, break early if we run out of data
-						//return b;
-					buf.get(alphaBuf);
-					alphaValues = decodeAlphaMap(alphaBuf);
-					
-					buf.get(colourBuf);
-					colours = decodeColourMap(colourBuf);
-					int bits = buf.getInt();
-					for(int yy=0;yy<heightAssign;yy++) {
-						for(int xx=0;xx<widthAssign;xx++) {
-							int colourIndex = (int) (bits & 0b11);
-							if(yy + y < height && xx + x < width)
-								b.setRGB(x+xx, y+yy, (colours[colourIndex].getRGB()&0b11111111_11111111_11111111) | alphaValues[yy*4+xx]<<24);
-							bits>>>=2;
-						}
-					}
-				}
-			}
-			return b;
-		}
-		
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
 			int width = input.getWidth();
 			int height = input.getHeight();
 			byte[] in = imageToByteArray(input);
-			byte[] result = Squish.compressImage(in, width, height, new byte[] {}, CompressionType.DXT3, method);
+			byte[] result = compress(in, width, height, CompressionType.DXT3);
 			writer.put(result);
 		}
 
 		
 		@Override
-		public Color[] decodeColourMap(byte[] data) {
-			Color[] colours = new Color[4];
-			int colour0 = ((data[0]&0b11111111) | data[1]<<8) & 0b11111111_11111111;
-			int colour1 = ((data[2]&0b11111111) | data[3]<<8) & 0b11111111_11111111;
-			
-			colours[0] = new Color((((colour0>>>11 & 0b00011111)*8)<<16) | (((colour0>>>5) & 0b00111111)*4)<<8 | (((colour0) & 0b00011111)*8));
-			colours[1] = new Color((((colour1>>>11 & 0b00011111)*8)<<16) | (((colour1>>>5) & 0b00111111)*4)<<8 | (((colour1) & 0b00011111)*8));
-			colours[2] = new Color(	(float)(2 * colours[0].getRed() + 		colours[1].getRed()) / 765f, // 765 = 3*255
-									(float)(2 * colours[0].getGreen() + 	colours[1].getGreen()) / 765f,
-									(float)(2 * colours[0].getBlue() + 		colours[1].getBlue()) / 765f);
-			colours[3] = new Color(	(float)(colours[0].getRed() + 		2 * colours[1].getRed()) / 765f,
-									(float)(colours[0].getGreen() + 	2 * colours[1].getGreen()) / 765f,
-									(float)(colours[0].getBlue() + 		2 * colours[1].getBlue()) / 765f);
-			
-			return colours;
+		protected boolean supportsPunchThrough() {
+			return false;
 		}
 		
 		@Override
-		public int[] decodeAlphaMap(byte[] bytes) {
-			int[] alphaValues = new int[16];
+		protected void decodeAlphaMap(ByteBuffer buf, int[] alphaValues, int[] alphaMap) { // explicit 4 bit alpha
 			for(int i =0;i<8;i++) {
-				int bits = (int)bytes[i] & 0b11111111;
+				int bits = (int)buf.get() & 0b11111111;
 				int val = bits & 0b00001111;
 				alphaValues[2*i] = 	(val<<4) | val;
 				val = bits & 0b11110000;
 				alphaValues[2*i+1] = val | (val>>>4);
 			}
-			return alphaValues;
 		}
 		
 		@Override
@@ -911,61 +1010,19 @@ public class PapaTexture extends PapaComponent{
 
 		{chunkByteSize = 16;}
 		
-		@Override
-		public BufferedImage decode(ByteBuffer br, TextureInfo info) {
-			Color [] colours;
-			int[] alphaValues;
-			int width = info.width;
-			int height = info.height;
-			
-			int widthAssign = Math.min(4, width);
-			int heightAssign = Math.min(4, height);
-			byte[] alphaBuf = new byte[8];
-			byte[] colourBuf = new byte[4];
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			//128 bits per 4x4 segment
-			for(int y = 0;y<height;y+=4) {
-				for(int x =0;x<width;x+=4) {
-					
-					// calculate and store the alpha values for the pixel.
-					br.get(alphaBuf);
-					alphaValues = decodeAlphaMap(alphaBuf);
-					
-					br.get(colourBuf);
-					colours = decodeColourMap(colourBuf);
-					
-					int bits = br.getInt();
-					for(int yy=0;yy<heightAssign;yy++) {
-						for(int xx=0;xx<widthAssign;xx++) {
-							int colourIndex = (int) (bits & 0b11);
-							if(yy + y < height && xx + x < width)
-								b.setRGB(x+xx, y+yy, (colours[colourIndex].getRGB() & 0b11111111_11111111_11111111) | (alphaValues[yy*4+xx]<<24));
-							bits>>>=2;
-						}
-					}
-				}
-			}
-			return b;
-		}
-
 		@Override
 		protected void encodeImage(BufferedImage input, ByteBuffer writer) {
 			int width = input.getWidth();
 			int height = input.getHeight();
 			byte[] in = imageToByteArray(input);
-			byte[] result = Squish.compressImage(in, width, height, new byte[] {}, CompressionType.DXT5, method);
+			byte[] result = compress(in, width, height, CompressionType.DXT5);
 			writer.put(result);
 		}
 		
 		@Override
-		public int[] decodeAlphaMap(byte[] bytes) {
-			int[] alphaValues = new int[16];
-			
-			int alphaMap[] = new int[8];
-			alphaMap[0]=(int)(bytes[0] & 0b11111111);
-			alphaMap[1]=(bytes[1] & 0b11111111);
+		protected void decodeAlphaMap(ByteBuffer buf, int[] alphaValues, int[] alphaMap) { // two endpoints and a 3 bit index per pixel
+			alphaMap[0]=(int)(buf.get() & 0b11111111);
+			alphaMap[1]=(buf.get() & 0b11111111);
 			
 			if(alphaMap[0]>alphaMap[1]) {
 				for(int j = 1;j<7;j++)
@@ -977,16 +1034,11 @@ public class PapaTexture extends PapaComponent{
 				alphaMap[7] = 255;
 			}
 			
-			long alphaBits = 0;
-			for (int i=2;i<8;i++)
-				alphaBits |= (((long)bytes[i]) & 0b11111111)<<((i-2)*8);
-			
+			long alphaBits = (buf.getInt() & 0xFFFFFFFFL) | (buf.getShort() & 0xFFFFL)<<32;
 			for(int j = 0;j<16;j++) {
 				alphaValues[j]= alphaMap[(int) (alphaBits&0b111)];
 				alphaBits>>>=3;
 			}
-			
-			return alphaValues;
 		}
 		
 		@Override
@@ -999,21 +1051,15 @@ public class PapaTexture extends PapaComponent{
 	private class R8 extends TextureConverter {
 
 		@Override
-		public BufferedImage decode(ByteBuffer buf, TextureInfo info) {
-			int width = info.width;
-			int height = info.height;
-			int length = width*height;
-			
-			BufferedImage b = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-			
-			int[] array = new int[width*height];
-			for(int i = 0;i<length;i++) {
-				array[i] = buf.get()<<16 | 0b11111111_00000000_11111111_11111111;
+		protected int rowSize(int width) {
+			return width;
+		}
+		
+		@Override
+		protected void decodeRows(ByteBuffer buf, int[] pixels, int width, int height, int start, int end) {
+			for(int i = start * width;i<end * width;i++) {
+				pixels[i] = buf.get()<<16 | 0b11111111_00000000_11111111_11111111;
 			}
-			
-			b.setRGB(0, 0, width, height, array, 0, width);
-			return b;
-			
 		}
 
 		@Override
@@ -1244,15 +1290,21 @@ public class PapaTexture extends PapaComponent{
 				&&	(t.numImages	==	numImages)
 				&&	(t.isLinked		==	isLinked)
 				&&	(t.name.equals(		name))
-				&&	(isLinked ? linkValid() == t.linkValid() && getLinkedTexture().equals(t.getLinkedTexture()) : compareImages(textures, t.textures));
+				&&	(isLinked ? linkValid() == t.linkValid() && getLinkedTexture().equals(t.getLinkedTexture()) : compareImages(t));
 				
 	}
 	
-	private boolean compareImages(BufferedImage[] set1, BufferedImage[] set2) {
-		if(set1==null || set2==null)
-			return set1==set2;
-		if(set1.length!=set2.length)
+	private boolean compareImages(PapaTexture other) {
+		if(textures==null || other.textures==null)
+			return textures==other.textures;
+		if(textures.length()!=other.textures.length())
 			return false;
+		BufferedImage[] set1 = new BufferedImage[textures.length()];
+		BufferedImage[] set2 = new BufferedImage[textures.length()];
+		for(int i =0;i<set1.length;i++) {
+			set1[i] = decodeImage(i);
+			set2[i] = other.decodeImage(i);
+		}
 		for(int i =0;i<set1.length;i++) {
 			if(set1[i].getWidth()!=set2[i].getWidth())
 				return false;
@@ -1322,6 +1374,15 @@ public class PapaTexture extends PapaComponent{
 		}
 	}
 	
+	private PapaTexture(PapaTexture other) { // the data was checked when other was loaded
+		this.name = other.name;
+		overwriteHelper(other);
+	}
+	
+	PapaTexture shareContents() { // a copy backed by the same data and decoded images, neither is ever modified in place
+		return new PapaTexture(this);
+	}
+	
 	@Override
 	protected void overwriteHelper(PapaComponent other) {// TODO
 		PapaTexture tex = (PapaTexture) other;
@@ -1329,10 +1390,12 @@ public class PapaTexture extends PapaComponent{
 		tex.checkLinked(false);
 		
 		this.textures = tex.textures;
+		this.decodeLocks = tex.decodeLocks;
 		this.red=tex.red;
 		this.green=tex.green;
 		this.blue=tex.blue;
 		this.alpha=tex.alpha;
+		this.luminance=tex.luminance;
 		this.data = tex.data;
 		this.width = tex.width;
 		this.height = tex.height;
@@ -23,6 +23,8 @@ import java.awt.Color;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
 
 import com.github.luther_1.ptexedit.papafile.PapaFile.BuildNotification;
 
@@ -36,20 +38,66 @@ public class PapaVertexBuffer extends PapaComponent {
 	
 	private byte format;
 	
-	private PapaVertex[] vertices;
+	private VertexStore vertices;
 	
 	private VertexBufferConverter modelConverter;
+	
+	private byte[] originalData; // the body as it was read, written back as is until the buffer is modified. null once modified.
 
 	public String getFormat() {
 		return formats[format];
 	}
 	
+	static String getFormatName(byte format) {
+		if(format < 0 || format >= formats.length)
+			return "Unknown("+format+")";
+		return formats[format];
+	}
+	
 	public int getNumVertices() {
-		return vertices.length;
+		return vertices.size;
 	}
 	
 	public PapaVertex getVertex(int index) {
-		return vertices[index];
+		if(index < 0 || index >= vertices.size)
+			throw new IndexOutOfBoundsException("Vertex "+index+" is out of bounds for "+vertices.size+" vertices");
+		return new PapaVertex(this, vertices, index);
+	}
+	
+	public FloatBuffer getPositions() { // 3 per vertex
+		return view(vertices.position);
+	}
+	
+	public FloatBuffer getNormals() { // 3 per vertex, null if the format has no normals
+		return view(vertices.normal);
+	}
+	
+	public FloatBuffer getTangents() {
+		return view(vertices.tangent);
+	}
+	
+	public FloatBuffer getBinormals() {
+		return view(vertices.binormal);
+	}
+	
+	public ByteBuffer getColours() { // RGBA, 4 per vertex
+		return view(vertices.colour);
+	}
+	
+	public FloatBuffer getTexcoords1() { // 2 per vertex
+		return view(vertices.texcoord1);
+	}
+	
+	public FloatBuffer getTexcoords2() {
+		return view(vertices.texcoord2);
+	}
+	
+	public ByteBuffer getBones() { // 4 per vertex
+		return view(vertices.bones);
+	}
+	
+	public ByteBuffer getWeights() { // 4 per vertex, 255 is a weight of 1
+		return view(vertices.weights);
 	}
 	
 	private VertexBufferConverter getInstance(String format) throws IOException {
@@ -78,16 +126,33 @@ public class PapaVertexBuffer extends PapaComponent {
 	
 	
 	public PapaVertexBuffer(byte format, int vertices, byte[] data, PapaFile p) throws IOException{
+		this(format, vertices, ByteBuffer.wrap(data), p);
+	}
+	
+	PapaVertexBuffer(byte format, int vertices, ByteBuffer buf, PapaFile p) throws IOException{
 		this.format = format;
 		this.parent = p;
 		
-		ByteBuffer buf = ByteBuffer.wrap(data);
 		buf.order(ByteOrder.LITTLE_ENDIAN);
 		modelConverter = getInstance(getFormat());
 		
+		originalData = toArray(buf);
 		decodeAll(vertices, buf, modelConverter);
 	}
 	
+	public boolean isModified() {
+		return originalData==null;
+	}
+	
+	@Override
+	protected Object getBodySource() {
+		return originalData;
+	}
+	
+	public void markModified() {
+		originalData = null;
+	}
+	
 	private void decodeAll(int numVertices, ByteBuffer buf, VertexBufferConverter converter) throws IOException {
 		checkData(buf, numVertices, converter);
 		
@@ -95,13 +160,13 @@ public class PapaVertexBuffer extends PapaComponent {
 	}
 	
 	private abstract class VertexBufferConverter {
-		protected abstract void encodeVertices(PapaVertex[] vertices, ByteBuffer writer);
-		public abstract PapaVertex[] decode(int vertices, ByteBuffer buf);
+		protected abstract void encodeVertices(VertexStore vertices, ByteBuffer writer);
+		public abstract VertexStore decode(int vertices, ByteBuffer buf);
 		public abstract int calcSize(int vertices);
 		public abstract byte formatIndex();
 		public abstract boolean testCompatibility(PapaVertex v);
-		public byte[] encode(PapaVertex... v) {
-			byte[] buf = new byte[calcSize(v.length)];
+		public byte[] encode(VertexStore v) {
+			byte[] buf = new byte[calcSize(v.size)];
 			ByteBuffer b = ByteBuffer.wrap(buf);
 			b.order(ByteOrder.LITTLE_ENDIAN);
 			encodeVertices(v, b);
@@ -112,22 +177,16 @@ public class PapaVertexBuffer extends PapaComponent {
 	private class Position3 extends VertexBufferConverter {
 
 		@Override
-		protected void encodeVertices(PapaVertex[] vertices, ByteBuffer writer) {
-			for(PapaVertex v : vertices) {
-				float[] pos = v.getPosition();
-				writer.putFloat(pos[0]);
-				writer.putFloat(pos[1]);
-				writer.putFloat(pos[2]);
-			}
+		protected void encodeVertices(VertexStore vertices, ByteBuffer writer) {
+			FloatBuffer floats = writer.asFloatBuffer();
+			putFloats(floats, 3, 0, vertices.position, 3);
 		}
 
 		@Override
-		public PapaVertex[] decode(int vertices, ByteBuffer buf) {
-			PapaVertex[] vert = new PapaVertex[vertices];
-			for(int i = 0;i<vertices;i++) {
-				float[] pos = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				vert[i] = new PapaVertex(pos);
-			}
+		public VertexStore decode(int vertices, ByteBuffer buf) {
+			VertexStore vert = new VertexStore(vertices, 0);
+			FloatBuffer floats = buf.asFloatBuffer();
+			getFloats(floats, 3, 0, vert.position, 3);
 			return vert;
 		}
 		
@@ -150,40 +209,22 @@ public class PapaVertexBuffer extends PapaComponent {
 	private class Position3Normal3Color4TexCoord2 extends VertexBufferConverter {
 		
 		@Override
-		protected void encodeVertices(PapaVertex[] vertices, ByteBuffer writer) {
-			for(PapaVertex v : vertices) {
-				float[] pos = v.getPosition();
-				writer.putFloat(pos[0]);
-				writer.putFloat(pos[1]);
-				writer.putFloat(pos[2]);
-				
-				float[] norm = v.getNormal();
-				writer.putFloat(norm[0]);
-				writer.putFloat(norm[1]);
-				writer.putFloat(norm[2]);
-				
-				Color c = v.getColour();
-				writer.put((byte) c.getRed());
-				writer.put((byte) c.getGreen());
-				writer.put((byte) c.getBlue());
-				writer.put((byte) c.getAlpha());
-				
-				float[] texcoord = v.getTexcoord1();
-				writer.putFloat(texcoord[0]);
-				writer.putFloat(texcoord[1]);
-			}
+		protected void encodeVertices(VertexStore vertices, ByteBuffer writer) {
+			FloatBuffer floats = writer.asFloatBuffer();
+			putFloats(floats, 9, 0, vertices.position, 3);
+			putFloats(floats, 9, 3, vertices.normal, 3);
+			putBytes(writer, 36, 24, vertices.colour, 4);
+			putFloats(floats, 9, 7, vertices.texcoord1, 2);
 		}
 		
 		@Override
-		public PapaVertex[] decode(int vertices, ByteBuffer buf) {
-			PapaVertex[] vert = new PapaVertex[vertices];
-			for(int i = 0;i<vertices;i++) {
-				float[] pos = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] normal = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				Color c = new Color(buf.get() & 0xff,buf.get() & 0xff,buf.get() & 0xff,buf.get() & 0xff);
-				float[] texcoord = new float[] {buf.getFloat(), buf.getFloat()};
-				vert[i] = new PapaVertex(pos,normal,c,texcoord);
-			}
+		public VertexStore decode(int vertices, ByteBuffer buf) {
+			VertexStore vert = new VertexStore(vertices, NORMAL | COLOUR | TEXCOORD1);
+			FloatBuffer floats = buf.asFloatBuffer();
+			getFloats(floats, 9, 0, vert.position, 3);
+			getFloats(floats, 9, 3, vert.normal, 3);
+			getBytes(buf, 36, 24, vert.colour, 4);
+			getFloats(floats, 9, 7, vert.texcoord1, 2);
 			return vert;
 		}
 		
@@ -206,45 +247,24 @@ public class PapaVertexBuffer extends PapaComponent {
 	private class Position3Normal3Color4TexCoord4 extends VertexBufferConverter {
 		
 		@Override
-		protected void encodeVertices(PapaVertex[] vertices, ByteBuffer writer) {
-			for(PapaVertex v : vertices) {
-				float[] pos = v.getPosition();
-				writer.putFloat(pos[0]);
-				writer.putFloat(pos[1]);
-				writer.putFloat(pos[2]);
-				
-				float[] norm = v.getNormal();
-				writer.putFloat(norm[0]);
-				writer.putFloat(norm[1]);
-				writer.putFloat(norm[2]);
-				
-				Color c = v.getColour();
-				writer.put((byte) c.getRed());
-				writer.put((byte) c.getGreen());
-				writer.put((byte) c.getBlue());
-				writer.put((byte) c.getAlpha());
-				
-				float[] texcoord = v.getTexcoord1();
-				writer.putFloat(texcoord[0]);
-				writer.putFloat(texcoord[1]);
-				
-				float[] texcoord2 = v.getTexcoord2();
-				writer.putFloat(texcoord2[0]);
-				writer.putFloat(texcoord2[1]);
-			}
+		protected void encodeVertices(VertexStore vertices, ByteBuffer writer) {
+			FloatBuffer floats = writer.asFloatBuffer();
+			putFloats(floats, 11, 0, vertices.position, 3);
+			putFloats(floats, 11, 3, vertices.normal, 3);
+			putBytes(writer, 44, 24, vertices.colour, 4);
+			putFloats(floats, 11, 7, vertices.texcoord1, 2);
+			putFloats(floats, 11, 9, vertices.texcoord2, 2);
 		}
 		
 		@Override
-		public PapaVertex[] decode(int vertices, ByteBuffer buf) {
-			PapaVertex[] vert = new PapaVertex[vertices];
-			for(int i = 0;i<vertices;i++) {
-				float[] pos = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] normal = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				Color c = new Color(buf.get() & 0xff,buf.get() & 0xff,buf.get() & 0xff,buf.get() & 0xff);
-				float[] texcoord1 = new float[] {buf.getFloat(), buf.getFloat()};
-				float[] texcoord2 = new float[] {buf.getFloat(), buf.getFloat()};
-				vert[i] = new PapaVertex(pos,normal,c,texcoord1, texcoord2);
-			}
+		public VertexStore decode(int vertices, ByteBuffer buf) {
+			VertexStore vert = new VertexStore(vertices, NORMAL | COLOUR | TEXCOORD1 | TEXCOORD2);
+			FloatBuffer floats = buf.asFloatBuffer();
+			getFloats(floats, 11, 0, vert.position, 3);
+			getFloats(floats, 11, 3, vert.normal, 3);
+			getBytes(buf, 44, 24, vert.colour, 4);
+			getFloats(floats, 11, 7, vert.texcoord1, 2);
+			getFloats(floats, 11, 9, vert.texcoord2, 2);
 			return vert;
 		}
 		
@@ -267,54 +287,24 @@ public class PapaVertexBuffer extends PapaComponent {
 	private class Position3Weights4bBones4bNormal3TexCoord2 extends VertexBufferConverter {
 		
 		@Override
-		protected void encodeVertices(PapaVertex[] vertices, ByteBuffer writer) {
-			for(PapaVertex v : vertices) {
-				float[] pos = v.getPosition();
-				writer.putFloat(pos[0]);
-				writer.putFloat(pos[1]);
-				writer.putFloat(pos[2]);
-				
-				byte[] bones = v.getBones();
-				writer.put(bones[0]);
-				writer.put(bones[1]);
-				writer.put(bones[2]);
-				writer.put(bones[3]);
-				
-				byte[] weights = toBytes(v.getWeights());
-				writer.put(weights[0]);
-				writer.put(weights[1]);
-				writer.put(weights[2]);
-				writer.put(weights[3]);
-				
-				float[] normal = v.getNormal();
-				writer.putFloat(normal[0]);
-				writer.putFloat(normal[1]);
-				writer.putFloat(normal[2]);
-				
-				float[] texcoord = v.getTexcoord1();
-				writer.putFloat(texcoord[0]);
-				writer.putFloat(texcoord[1]);
-			}
-		}
-		
-		private byte[] toBytes(float[] floats) {
-			byte[] val = new byte[floats.length];
-			for(int i =0;i<floats.length;i++)
-				val[i] = (byte) (floats[i] * 255);
-			return val;
+		protected void encodeVertices(VertexStore vertices, ByteBuffer writer) {
+			FloatBuffer floats = writer.asFloatBuffer();
+			putFloats(floats, 10, 0, vertices.position, 3);
+			putBytes(writer, 40, 12, vertices.bones, 4);
+			putBytes(writer, 40, 16, vertices.weights, 4);
+			putFloats(floats, 10, 5, vertices.normal, 3);
+			putFloats(floats, 10, 8, vertices.texcoord1, 2);
 		}
 		
 		@Override
-		public PapaVertex[] decode(int vertices, ByteBuffer buf) {
-			PapaVertex[] vert = new PapaVertex[vertices];
-			for(int i = 0;i<vertices;i++) {
-				float[] pos = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				byte[] bones = new byte[] {buf.get(), buf.get(), buf.get(), buf.get()};
-				byte[] weights = new byte[] {buf.get(), buf.get(), buf.get(), buf.get()};
-				float[] normal = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] texcoord = new float[] {buf.getFloat(), buf.getFloat()};
-				vert[i] = new PapaVertex(pos, bones, weights, normal, texcoord);
-			}
+		public VertexStore decode(int vertices, ByteBuffer buf) {
+			VertexStore vert = new VertexStore(vertices, NORMAL | TEXCOORD1 | BONES | WEIGHTS);
+			FloatBuffer floats = buf.asFloatBuffer();
+			getFloats(floats, 10, 0, vert.position, 3);
+			getBytes(buf, 40, 12, vert.bones, 4);
+			getBytes(buf, 40, 16, vert.weights, 4);
+			getFloats(floats, 10, 5, vert.normal, 3);
+			getFloats(floats, 10, 8, vert.texcoord1, 2);
 			return vert;
 		}
 		
@@ -338,50 +328,26 @@ public class PapaVertexBuffer extends PapaComponent {
 	private class Position3Normal3Tan3Bin3TexCoord4 extends VertexBufferConverter {
 		
 		@Override
-		protected void encodeVertices(PapaVertex[] vertices, ByteBuffer writer) {
-			for(PapaVertex v : vertices) {
-				float[] pos = v.getPosition();
-				writer.putFloat(pos[0]);
-				writer.putFloat(pos[1]);
-				writer.putFloat(pos[2]);
-				
-				float[] normal = v.getNormal();
-				writer.putFloat(normal[0]);
-				writer.putFloat(normal[1]);
-				writer.putFloat(normal[2]);
-				
-				float[] tangent = v.getTangent();
-				writer.putFloat(tangent[0]);
-				writer.putFloat(tangent[1]);
-				writer.putFloat(tangent[2]);
-				
-				float[] binormal = v.getBinormal();
-				writer.putFloat(binormal[0]);
-				writer.putFloat(binormal[1]);
-				writer.putFloat(binormal[2]);
-				
-				float[] texcoord1 = v.getTexcoord1();
-				writer.putFloat(texcoord1[0]);
-				writer.putFloat(texcoord1[1]);
-				
-				float[] texcoord2 = v.getTexcoord2();
-				writer.putFloat(texcoord2[0]);
-				writer.putFloat(texcoord2[1]);
-			}
+		protected void encodeVertices(VertexStore vertices, ByteBuffer writer) {
+			FloatBuffer floats = writer.asFloatBuffer();
+			putFloats(floats, 16, 0, vertices.position, 3);
+			putFloats(floats, 16, 3, vertices.normal, 3);
+			putFloats(floats, 16, 6, vertices.tangent, 3);
+			putFloats(floats, 16, 9, vertices.binormal, 3);
+			putFloats(floats, 16, 12, vertices.texcoord1, 2);
+			putFloats(floats, 16, 14, vertices.texcoord2, 2);
 		}
 		
 		@Override
-		public PapaVertex[] decode(int vertices, ByteBuffer buf) {
-			PapaVertex[] vert = new PapaVertex[vertices];
-			for(int i = 0;i<vertices;i++) {
-				float[] pos = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] normal = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] tangent = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] binormal = new float[] {buf.getFloat(), buf.getFloat(),buf.getFloat()};
-				float[] texcoord1 = new float[] {buf.getFloat(), buf.getFloat()};
-				float[] texcoord2 = new float[] {buf.getFloat(), buf.getFloat()};
-				vert[i] = new PapaVertex(pos, normal, tangent, binormal, texcoord1, texcoord2);
-			}
+		public VertexStore decode(int vertices, ByteBuffer buf) {
+			VertexStore vert = new VertexStore(vertices, NORMAL | TANGENT | BINORMAL | TEXCOORD1 | TEXCOORD2);
+			FloatBuffer floats = buf.asFloatBuffer();
+			getFloats(floats, 16, 0, vert.position, 3);
+			getFloats(floats, 16, 3, vert.normal, 3);
+			getFloats(floats, 16, 6, vert.tangent, 3);
+			getFloats(floats, 16, 9, vert.binormal, 3);
+			getFloats(floats, 16, 12, vert.texcoord1, 2);
+			getFloats(floats, 16, 14, vert.texcoord2, 2);
 			return vert;
 		}
 		
@@ -401,149 +367,305 @@ public class PapaVertexBuffer extends PapaComponent {
 		}
 	}
 	
-	public static class PapaVertex {
-		private final float[] position;
-		private final float[] normal;
-		private final float[] binormal;
-		private final float[] tangent;
-		private final Color colour;
-		private final float[] texcoord1;
-		private final float[] texcoord2;
-		private final byte[] bones;
-		private final float[] weights;
+	private static void getFloats(FloatBuffer floats, int stride, int offset, float[] dst, int count) { // one attribute of every vertex, stride and offset in floats
+		if(stride==count) {
+			floats.get(dst);
+			return;
+		}
+		for(int i = 0, v = offset;i<dst.length;i+=count, v+=stride) {
+			floats.position(v);
+			floats.get(dst, i, count);
+		}
+	}
+	
+	private static void putFloats(FloatBuffer floats, int stride, int offset, float[] src, int count) {
+		if(stride==count) {
+			floats.put(src);
+			return;
+		}
+		for(int i = 0, v = offset;i<src.length;i+=count, v+=stride) {
+			floats.position(v);
+			floats.put(src, i, count);
+		}
+	}
+	
+	private static void getBytes(ByteBuffer buf, int stride, int offset, byte[] dst, int count) { // stride and offset in bytes
+		ByteBuffer b = buf.duplicate();
+		for(int i = 0, v = buf.position() + offset;i<dst.length;i+=count, v+=stride) {
+			b.position(v);
+			b.get(dst, i, count);
+		}
+	}
+	
+	private static void putBytes(ByteBuffer buf, int stride, int offset, byte[] src, int count) {
+		ByteBuffer b = buf.duplicate();
+		for(int i = 0, v = buf.position() + offset;i<src.length;i+=count, v+=stride) {
+			b.position(v);
+			b.put(src, i, count);
+		}
+	}
+	
+	private static FloatBuffer view(float[] attribute) {
+		return attribute==null ? null : FloatBuffer.wrap(attribute).asReadOnlyBuffer();
+	}
+	
+	private static ByteBuffer view(byte[] attribute) {
+		return attribute==null ? null : ByteBuffer.wrap(attribute).asReadOnlyBuffer();
+	}
+	
+	private static final int NORMAL = 1, TANGENT = 2, BINORMAL = 4, COLOUR = 8, TEXCOORD1 = 16, TEXCOORD2 = 32, BONES = 64, WEIGHTS = 128;
+	
+	private static class VertexStore { // one packed array per attribute, null if the format does not have it
+		private final int size;
+		private final float[] position;		// 3 per vertex
+		private final float[] normal;		// 3 per vertex
+		private final float[] tangent;		// 3 per vertex
+		private final float[] binormal;		// 3 per vertex
+		private final byte[] colour;		// RGBA, 4 per vertex
+		private final float[] texcoord1;	// 2 per vertex
+		private final float[] texcoord2;	// 2 per vertex
+		private final byte[] bones;			// 4 per vertex
+		private final byte[] weights;		// 4 per vertex, stored as in the file. 255 is a weight of 1
+		
+		private VertexStore(int size, int attributes) {
+			this.size = size;
+			this.position = 	new float[size * 3];
+			this.normal = 		(attributes & NORMAL) != 0 ? 	new float[size * 3] : null;
+			this.tangent = 		(attributes & TANGENT) != 0 ? 	new float[size * 3] : null;
+			this.binormal = 	(attributes & BINORMAL) != 0 ? 	new float[size * 3] : null;
+			this.colour = 		(attributes & COLOUR) != 0 ? 	new byte[size * 4] : null;
+			this.texcoord1 = 	(attributes & TEXCOORD1) != 0 ? new float[size * 2] : null;
+			this.texcoord2 = 	(attributes & TEXCOORD2) != 0 ? new float[size * 2] : null;
+			this.bones = 		(attributes & BONES) != 0 ? 	new byte[size * 4] : null;
+			this.weights = 		(attributes & WEIGHTS) != 0 ? 	new byte[size * 4] : null;
+		}
+	}
+	
+	public static class PapaVertex { // a view of one vertex in a VertexStore. The array getters return copies, changes go through the setters
+		private final PapaVertexBuffer owner; // null for a vertex that is not part of a buffer
+		private final VertexStore store;
+		private final int index;
+		
+		private PapaVertex(PapaVertexBuffer owner, VertexStore store, int index) {
+			this.owner = owner;
+			this.store = store;
+			this.index = index;
+		}
 		
 		public boolean normalAvailable() {
-			return normal!=null;
+			return store.normal!=null;
 		}
 		
 		public boolean binormalAvailable() {
-			return binormal!=null;
+			return store.binormal!=null;
 		}
 		
 		public boolean tangentAvailable() {
-			return tangent!=null;
+			return store.tangent!=null;
 		}
 		
 		public boolean colourAvailable() {
-			return colour!=null;
+			return store.colour!=null;
 		}
 		
 		public boolean texcoord1Available() {
-			return texcoord1!=null;
+			return store.texcoord1!=null;
 		}
 		
 		public boolean texcoord2Available() {
-			return texcoord2!=null;
+			return store.texcoord2!=null;
 		}
 		
 		public boolean bonesAvailable() {
-			return bones!=null;
+			return store.bones!=null;
 		}
 		
 		public boolean weightsAvailable() {
-			return weights!=null;
+			return store.weights!=null;
+		}
+		
+		private float[] copy(float[] attribute, int stride) {
+			return attribute==null ? null : Arrays.copyOfRange(attribute, index * stride, index * stride + stride);
+		}
+		
+		private float get(float[] attribute, int stride, int component) {
+			if(attribute==null)
+				throw new IllegalArgumentException("The vertex format does not have this attribute");
+			if(component < 0 || component >= stride)
+				throw new IndexOutOfBoundsException("Component "+component+" is out of bounds for "+stride+" components");
+			return attribute[index * stride + component];
+		}
+		
+		private void set(float[] attribute, int stride, float[] values) {
+			if(attribute==null)
+				throw new IllegalArgumentException("The vertex format does not have this attribute");
+			System.arraycopy(values, 0, attribute, index * stride, stride);
+			modified();
+		}
+		
+		private void modified() {
+			if(owner!=null)
+				owner.markModified();
+		}
+		
+		public float getPosition(int component) { // no copy, 0 to 2
+			return get(store.position, 3, component);
+		}
+		
+		public float getNormal(int component) {
+			return get(store.normal, 3, component);
+		}
+		
+		public float getBinormal(int component) {
+			return get(store.binormal, 3, component);
+		}
+		
+		public float getTangent(int component) {
+			return get(store.tangent, 3, component);
+		}
+		
+		public float getTexcoord1(int component) { // 0 to 1
+			return get(store.texcoord1, 2, component);
+		}
+		
+		public float getTexcoord2(int component) {
+			return get(store.texcoord2, 2, component);
+		}
+		
+		public void setPosition(float[] position) {
+			set(store.position, 3, position);
+		}
+		
+		public void setNormal(float[] normal) {
+			set(store.normal, 3, normal);
+		}
+		
+		public void setBinormal(float[] binormal) {
+			set(store.binormal, 3, binormal);
+		}
+		
+		public void setTangent(float[] tangent) {
+			set(store.tangent, 3, tangent);
+		}
+		
+		public void setTexcoord1(float[] texcoord) {
+			set(store.texcoord1, 2, texcoord);
+		}
+		
+		public void setTexcoord2(float[] texcoord) {
+			set(store.texcoord2, 2, texcoord);
+		}
+		
+		public void setColour(Color c) {
+			if(store.colour==null)
+				throw new IllegalArgumentException("The vertex format does not have colours");
+			int i = index * 4;
+			store.colour[i] = (byte) c.getRed();
+			store.colour[i + 1] = (byte) c.getGreen();
+			store.colour[i + 2] = (byte) c.getBlue();
+			store.colour[i + 3] = (byte) c.getAlpha();
+			modified();
+		}
+		
+		public void setBones(byte[] bones) {
+			if(store.bones==null)
+				throw new IllegalArgumentException("The vertex format does not have bones");
+			System.arraycopy(bones, 0, store.bones, index * 4, 4);
+			modified();
+		}
+		
+		public void setWeights(float[] weights) { // 0 to 1, stored as a byte
+			if(store.weights==null)
+				throw new IllegalArgumentException("The vertex format does not have weights");
+			for(int i = 0;i<4;i++)
+				store.weights[index * 4 + i] = (byte) (weights[i] * 255);
+			modified();
 		}
 
 		public float[] getPosition() {
-			return position;
+			return copy(store.position, 3);
 		}
 
 		public float[] getNormal() {
-			return normal;
+			return copy(store.normal, 3);
 		}
 
 		public float[] getBinormal() {
-			return binormal;
+			return copy(store.binormal, 3);
 		}
 
 		public float[] getTangent() {
-			return tangent;
+			return copy(store.tangent, 3);
 		}
 
 		public Color getColour() {
-			return colour;
+			if(store.colour==null)
+				return null;
+			int i = index * 4;
+			return new Color(store.colour[i] & 0xff, store.colour[i + 1] & 0xff, store.colour[i + 2] & 0xff, store.colour[i + 3] & 0xff);
 		}
 
 		public float[] getTexcoord1() {
-			return texcoord1;
+			return copy(store.texcoord1, 2);
 		}
 
 		public float[] getTexcoord2() {
-			return texcoord2;
+			return copy(store.texcoord2, 2);
 		}
 
 		public byte[] getBones() {
-			return bones;
+			return store.bones==null ? null : Arrays.copyOfRange(store.bones, index * 4, index * 4 + 4);
 		}
 
 		public float[] getWeights() {
+			if(store.weights==null)
+				return null;
+			float[] weights = new float[4];
+			for(int i = 0;i<4;i++)
+				weights[i] = (float)(store.weights[index * 4 + i] & 0xff)/255f;
 			return weights;
 		}
 
 		public PapaVertex(float[] position) {
-			this.position = position;
-			this.normal = null;
-			this.binormal = null;
-			this.tangent = null;
-			this.colour = null;
-			this.texcoord1 = null;
-			this.texcoord2 = null;
-			this.bones = null;
-			this.weights = null;
+			this(null, new VertexStore(1, 0), 0);
+			System.arraycopy(position, 0, store.position, 0, 3);
 		}
 		
 		public PapaVertex(float[] position, float[] normal, Color c, float[] texcoord) {
-			this.position = position;
-			this.normal = null;
-			this.binormal = normal;
-			this.tangent = null;
-			this.colour = c;
-			this.texcoord1 = texcoord;
-			this.texcoord2 = null;
-			this.bones = null;
-			this.weights = null;
+			this(null, new VertexStore(1, NORMAL | COLOUR | TEXCOORD1), 0);
+			System.arraycopy(position, 0, store.position, 0, 3);
+			System.arraycopy(normal, 0, store.normal, 0, 3);
+			setColour(c);
+			System.arraycopy(texcoord, 0, store.texcoord1, 0, 2);
 		}
 		
 		public PapaVertex(float[] position, float[] normal, Color c, float[] texcoord1, float[] texcoord2) {
-			this.position = position;
-			this.normal = normal;
-			this.binormal = null;
-			this.tangent = null;
-			this.colour = c;
-			this.texcoord1 = texcoord1;
-			this.texcoord2 = texcoord2;
-			this.bones = null;
-			this.weights = null;
+			this(null, new VertexStore(1, NORMAL | COLOUR | TEXCOORD1 | TEXCOORD2), 0);
+			System.arraycopy(position, 0, store.position, 0, 3);
+			System.arraycopy(normal, 0, store.normal, 0, 3);
+			setColour(c);
+			System.arraycopy(texcoord1, 0, store.texcoord1, 0, 2);
+			System.arraycopy(texcoord2, 0, store.texcoord2, 0, 2);
 		}
 		
 		public PapaVertex(float[] position, byte[] bones, byte[] weights, float[] normal, float[] texcoord) {
-			this.position = position;
-			this.normal = normal;
-			this.binormal = null;
-			this.tangent = null;
-			this.colour = null;
-			this.texcoord1 = texcoord;
-			this.texcoord2 = null;
-			this.bones = bones;
-			float[] tWeight = new float[4];
-			for(int i = 0;i<weights.length;i++)
-				tWeight[i] =(float)(weights[i] & 0xff)/255f;
-			this.weights=tWeight;
+			this(null, new VertexStore(1, NORMAL | TEXCOORD1 | BONES | WEIGHTS), 0);
+			System.arraycopy(position, 0, store.position, 0, 3);
+			System.arraycopy(bones, 0, store.bones, 0, 4);
+			System.arraycopy(weights, 0, store.weights, 0, weights.length);
+			System.arraycopy(normal, 0, store.normal, 0, 3);
+			System.arraycopy(texcoord, 0, store.texcoord1, 0, 2);
 		}
 		
 		public PapaVertex(float[] position, float[] normal, float[] tangent, float[] binormal, float[] texcoord1, float[] texcoord2) {
-			this.position = position;
-			this.normal = normal;
-			this.binormal = binormal;
-			this.tangent = tangent;
-			this.colour = null;
-			this.texcoord1 = texcoord1;
-			this.texcoord2 = texcoord2;
-			this.bones = null;
-			this.weights=null;
+			this(null, new VertexStore(1, NORMAL | TANGENT | BINORMAL | TEXCOORD1 | TEXCOORD2), 0);
+			System.arraycopy(position, 0, store.position, 0, 3);
+			System.arraycopy(normal, 0, store.normal, 0, 3);
+			System.arraycopy(tangent, 0, store.tangent, 0, 3);
+			System.arraycopy(binormal, 0, store.binormal, 0, 3);
+			System.arraycopy(texcoord1, 0, store.texcoord1, 0, 2);
+			System.arraycopy(texcoord2, 0, store.texcoord2, 0, 2);
 		}
-		
-		
 	}
 	
 	@Override
@@ -558,7 +680,7 @@ public class PapaVertexBuffer extends PapaComponent {
 
 	@Override
 	protected int bodySize() {
-		return modelConverter.calcSize(vertices.length);
+		return modelConverter.calcSize(vertices.size);
 	}
 
 	@Override
@@ -567,14 +689,14 @@ public class PapaVertexBuffer extends PapaComponent {
 		header = ByteBuffer.wrap(headerBytes);
 		header.order(ByteOrder.LITTLE_ENDIAN);
 		
-		super.data = ByteBuffer.wrap(modelConverter.encode(vertices));
+		super.data = ByteBuffer.wrap(originalData!=null ? originalData : modelConverter.encode(vertices));
 		super.data.order(ByteOrder.LITTLE_ENDIAN);
 		
 		header.put((byte)this.format);
 		header.put((byte) 0);
 		header.put((byte) 0);
 		header.put((byte) 0);
-		header.putInt(vertices.length);
+		header.putInt(vertices.size);
 		header.putLong((long)super.data.limit());
 	}
 
@@ -636,6 +758,7 @@ public class PapaVertexBuffer extends PapaComponent {
 		parent = null;
 		vertices = null;
 		modelConverter = null;
+		originalData = null;
 	}
 
 }
@@ -0,0 +1,186 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An ordered list of media roots along with an index of the papa files below each of them, so that linked files can be found
+ * without probing the file system. Roots added through {@link #addRoot(File)} are searched in the order they were added, followed by the media directory.
+ */
+class SearchPathIndex {
+	
+	private final ArrayList<Root> roots = new ArrayList<Root>();
+	private Root mediaDirectory = null;
+	
+	synchronized void setMediaDirectory(File f) {
+		mediaDirectory = f==null ? null : new Root(f);
+	}
+	
+	synchronized void addRoot(File f) {
+		for(Root r : roots)
+			if(r.directory.equals(f))
+				return;
+		roots.add(new Root(f)); // walked on first use
+	}
+	
+	synchronized boolean removeRoot(File f) {
+		for(int i = 0;i<roots.size();i++)
+			if(roots.get(i).directory.equals(f)) {
+				roots.remove(i);
+				return true;
+			}
+		return false;
+	}
+	
+	synchronized File[] getRoots() {
+		Root[] search = searchOrder();
+		File[] files = new File[search.length];
+		for(int i = 0;i<search.length;i++)
+			files[i] = search[i].directory;
+		return files;
+	}
+	
+	boolean isEmpty() {
+		return searchOrder().length==0;
+	}
+	
+	void refresh() {
+		for(Root r : searchOrder())
+			r.invalidate();
+	}
+	
+	File resolve(String relativePath) {
+		String key = normalise(relativePath);
+		Root[] search = searchOrder();
+		for(Root r : search) {
+			File f = r.getIndex().get(key);
+			if(f!=null)
+				return f;
+		}
+		for(Root r : search) { // the file may have been created after the root was walked
+			File f = new File(r.directory, key);
+			if(f.isFile()) {
+				r.getIndex().put(key, f);
+				return f;
+			}
+		}
+		return null;
+	}
+	
+	void forget(String relativePath) {
+		String key = normalise(relativePath);
+		for(Root r : searchOrder())
+			r.getIndex().remove(key);
+	}
+	
+	String relativise(String canonicalPath) { // returns null if the path is not inside any root
+		for(Root r : searchOrder())
+			if(canonicalPath.startsWith(r.prefix) && canonicalPath.startsWith("/", r.prefix.length()))
+				return canonicalPath.substring(r.prefix.length());
+		return null;
+	}
+	
+	private synchronized Root[] searchOrder() {
+		int size = roots.size() + (mediaDirectory==null ? 0 : 1);
+		Root[] search = roots.toArray(new Root[size]);
+		if(mediaDirectory!=null)
+			search[size - 1] = mediaDirectory;
+		return search;
+	}
+	
+	private static String normalise(String relativePath) {
+		String key = relativePath.replace('\\', '/');
+		return key.startsWith("/") ? key : "/" + key;
+	}
+	
+	private static class Root {
+		private final File directory;
+		private final String prefix;
+		private volatile ConcurrentHashMap<String, File> index = null;
+		
+		private Root(File directory) {
+			this.directory = directory;
+			String path;
+			try {
+				path = directory.getCanonicalPath();
+			} catch (IOException e) {
+				path = directory.getAbsolutePath();
+			}
+			this.prefix = path.replace('\\', '/');
+		}
+		
+		private ConcurrentHashMap<String, File> getIndex() {
+			ConcurrentHashMap<String, File> result = index;
+			if(result!=null)
+				return result;
+			synchronized(this) {
+				if(index==null) {
+					ConcurrentHashMap<String, File> files = new ConcurrentHashMap<String, File>();
+					ForkJoinPool.commonPool().invoke(new DirectoryWalk(directory, "", files));
+					index = files;
+				}
+				return index;
+			}
+		}
+		
+		private void invalidate() {
+			index = null;
+		}
+	}
+	
+	private static class DirectoryWalk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		private final File directory;
+		private final String relativePath;
+		private final Map<String, File> files;
+		
+		private DirectoryWalk(File directory, String relativePath, Map<String, File> files) {
+			this.directory = directory;
+			this.relativePath = relativePath;
+			this.files = files;
+		}
+		
+		@Override
+		protected void compute() {
+			File[] children = directory.listFiles();
+			if(children==null)
+				return;
+			ArrayList<DirectoryWalk> subdirectories = new ArrayList<DirectoryWalk>();
+			for(File f : children) {
+				String path = relativePath + "/" + f.getName();
+				if(f.isDirectory()) {
+					if(!Files.isSymbolicLink(f.toPath())) // avoids walking in circles
+						subdirectories.add(new DirectoryWalk(f, path, files));
+				} else if(f.getName().endsWith(".papa"))
+					files.put(path, f);
+			}
+			invokeAll(subdirectories);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+/**
+ * Assertions for the regression checks in this folder, which run without a test framework. From the project root:<br>
+ * <code>javac --release 8 -d bin -sourcepath src:src-ext:test test/com/github/luther_1/ptexedit/papafile/*Checks.java</code><br>
+ * <code>java -Djava.awt.headless=true -cp bin:src com.github.luther_1.ptexedit.papafile.PatchChecks</code><br>
+ * src is on the class path for the resources PapaFile loads. Each checker exits with status 1 if anything failed.
+ */
+final class Checks {
+	
+	private final String name;
+	private int passed = 0;
+	private int failed = 0;
+	
+	Checks(String name) {
+		this.name = name;
+	}
+	
+	void check(boolean condition, String message) {
+		if(condition)
+			passed++;
+		else {
+			failed++;
+			System.err.println("FAILED: "+message);
+		}
+	}
+	
+	void fail(String message, Throwable t) {
+		failed++;
+		System.err.println("FAILED: "+message+": "+t);
+	}
+	
+	void finish() {
+		System.out.println(name+": "+passed+" passed, "+failed+" failed");
+		System.exit(failed==0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.luther_1.ptexedit.papafile.PapaTexture.ImmutableTextureSettings;
+import com.github.luther_1.ptexedit.papafile.PapaTexture.TextureSettings;
+import com.github.memo33.jsquish.Squish;
+import com.github.memo33.jsquish.Squish.CompressionMethod;
+import com.github.memo33.jsquish.Squish.CompressionMetric;
+import com.github.memo33.jsquish.Squish.CompressionType;
+
+/**
+ * Checks that texture decoding and encoding give the same pixels as the original per pixel code, whichever of the
+ * bulk, banded or parallel paths is taken.
+ */
+public class FormatChecks {
+	
+	private static final Checks checks = new Checks("FormatChecks");
+	
+	public static void main(String[] args) throws IOException {
+		Random random = new Random(42);
+		rawDecode(random);
+		losslessRoundTrip(random);
+		dxtDecode(random, "DXT1", (byte) 4, 8);
+		dxtDecode(random, "DXT5", (byte) 6, 16);
+		parallelDecode(random);
+		encodeInputTypes(random);
+		parallelCompression(random);
+		checks.finish();
+	}
+	
+	private static void rawDecode(Random random) throws IOException { // byte order of the uncompressed formats
+		int width = 37, height = 23;
+		byte[] data = new byte[width * height * 4];
+		random.nextBytes(data);
+		String[] formats = {"R8G8B8A8", "R8G8B8X8", "B8G8R8A8"}; // R8G8B8X8 decodes its fourth byte like R8G8B8A8 does
+		for(int f = 0;f<formats.length;f++) {
+			BufferedImage image = texture(formats[f], (byte) (f + 1), width, height, data).getImage();
+			int mismatches = 0;
+			for(int i = 0;i<width * height;i++) {
+				int r = data[4 * i] & 0xff, g = data[4 * i + 1] & 0xff, b = data[4 * i + 2] & 0xff, a = data[4 * i + 3] & 0xff;
+				if(f==2) {
+					r = data[4 * i + 2] & 0xff;
+					b = data[4 * i] & 0xff;
+				}
+				if(image.getRGB(i % width, i / width) != (a<<24 | r<<16 | g<<8 | b))
+					mismatches++;
+			}
+			checks.check(mismatches==0, formats[f]+" decode has "+mismatches+" wrong pixels");
+		}
+	}
+	
+	private static void losslessRoundTrip(Random random) throws IOException {
+		BufferedImage input = randomImage(random, 64, 32, BufferedImage.TYPE_INT_ARGB);
+		for(String format : new String[] {"R8G8B8A8", "B8G8R8A8", "R8G8B8X8", "R8"}) {
+			BufferedImage output = new PapaTexture(input, settings(format), null, format).getImage();
+			int mask = format.equals("R8") ? 0x00ff0000 : format.equals("R8G8B8X8") ? 0x00ffffff : 0xffffffff;
+			int mismatches = 0;
+			for(int y = 0;y<input.getHeight();y++)
+				for(int x = 0;x<input.getWidth();x++)
+					if((input.getRGB(x, y) & mask) != (output.getRGB(x, y) & mask))
+						mismatches++;
+			checks.check(mismatches==0, format+" round trip has "+mismatches+" wrong pixels");
+		}
+	}
+	
+	private static void dxtDecode(Random random, String format, byte formatIndex, int blockSize) throws IOException {
+		int width = 13, height = 9; // partial blocks on both edges
+		int blocksWide = (width + 3) / 4, blocksHigh = (height + 3) / 4;
+		byte[] data = new byte[blocksWide * blocksHigh * blockSize];
+		random.nextBytes(data);
+		for(int i = 0;i<data.length;i+=blockSize * 2) { // make sure both DXT1 colour modes are covered
+			int colour = i + blockSize - 8;
+			byte swap = data[colour];
+			data[colour] = data[colour + 2];
+			data[colour + 2] = swap;
+		}
+		BufferedImage image = texture(format, formatIndex, width, height, data).getImage();
+		
+		int mismatches = 0;
+		for(int by = 0;by<blocksHigh;by++)
+			for(int bx = 0;bx<blocksWide;bx++) {
+				int[] expected = referenceBlock(data, (by * blocksWide + bx) * blockSize, blockSize==16);
+				for(int p = 0;p<16;p++) {
+					int x = bx * 4 + p % 4, y = by * 4 + p / 4;
+					if(x < width && y < height && image.getRGB(x, y) != expected[p])
+						mismatches++;
+				}
+			}
+		checks.check(mismatches==0, format+" decode has "+mismatches+" wrong pixels");
+	}
+	
+	private static int[] referenceBlock(byte[] data, int offset, boolean dxt5) { // the per pixel decoder from before the block loop was shared
+		int[] alpha = new int[16];
+		Arrays.fill(alpha, 255);
+		if(dxt5) {
+			int[] map = new int[8];
+			map[0] = data[offset] & 0xff;
+			map[1] = data[offset + 1] & 0xff;
+			if(map[0] > map[1]) {
+				for(int j = 1;j<7;j++)
+					map[j + 1] = ((7 - j) * map[0] + j * map[1]) / 7;
+			} else {
+				for(int j = 1;j<5;j++)
+					map[j + 1] = ((5 - j) * map[0] + j * map[1]) / 5;
+				map[6] = 0;
+				map[7] = 255;
+			}
+			long bits = 0;
+			for(int i = 0;i<6;i++)
+				bits |= (data[offset + 2 + i] & 0xffL) << (8 * i);
+			for(int p = 0;p<16;p++)
+				alpha[p] = map[(int) (bits>>>(3 * p) & 0b111)];
+			offset+=8;
+		}
+		int colour0 = (data[offset] & 0xff) | (data[offset + 1] & 0xff)<<8;
+		int colour1 = (data[offset + 2] & 0xff) | (data[offset + 3] & 0xff)<<8;
+		Color c0 = new Color((colour0>>>11 & 0b11111) * 8, (colour0>>>5 & 0b111111) * 4, (colour0 & 0b11111) * 8);
+		Color c1 = new Color((colour1>>>11 & 0b11111) * 8, (colour1>>>5 & 0b111111) * 4, (colour1 & 0b11111) * 8);
+		Color[] colours = {c0, c1, null, null};
+		if(colour0 > colour1) { // DXT5 uses the three colour mode as well, as it always has here
+			colours[2] = new Color((2 * c0.getRed() + c1.getRed()) / 765f, (2 * c0.getGreen() + c1.getGreen()) / 765f, (2 * c0.getBlue() + c1.getBlue()) / 765f);
+			colours[3] = new Color((c0.getRed() + 2 * c1.getRed()) / 765f, (c0.getGreen() + 2 * c1.getGreen()) / 765f, (c0.getBlue() + 2 * c1.getBlue()) / 765f);
+		} else {
+			colours[2] = new Color((c0.getRed() + c1.getRed()) / 510f, (c0.getGreen() + c1.getGreen()) / 510f, (c0.getBlue() + c1.getBlue()) / 510f);
+			colours[3] = new Color(0f, 0f, 0f);
+		}
+		int indices = 0;
+		for(int i = 0;i<4;i++)
+			indices |= (data[offset + 4 + i] & 0xff) << (8 * i);
+		int[] pixels = new int[16];
+		for(int p = 0;p<16;p++)
+			pixels[p] = (colours[indices>>>(2 * p) & 0b11].getRGB() & 0xffffff) | alpha[p]<<24;
+		return pixels;
+	}
+	
+	private static void parallelDecode(Random random) throws IOException { // only takes the banded path when the common pool has at least 2 threads
+		int width = 256, height = 256;
+		byte[] data = new byte[width * height];
+		random.nextBytes(data);
+		int threshold = PapaTexture.getParallelDecodeThreshold();
+		try {
+			PapaTexture.setParallelDecodeThreshold(Integer.MAX_VALUE);
+			BufferedImage serial = texture("DXT5", (byte) 6, width, height, data).getImage();
+			PapaTexture.setParallelDecodeThreshold(1);
+			BufferedImage banded = texture("DXT5", (byte) 6, width, height, data).getImage();
+			checks.check(Arrays.equals(pixels(serial), pixels(banded)), "banded DXT5 decode differs from the serial decode");
+		} finally {
+			PapaTexture.setParallelDecodeThreshold(threshold);
+		}
+	}
+	
+	private static void encodeInputTypes(Random random) throws IOException { // the bulk conversions of each image type feed squish the same pixels
+		BufferedImage argb = randomImage(random, 32, 16, BufferedImage.TYPE_INT_ARGB);
+		for(int x = 0;x<argb.getWidth();x++)
+			for(int y = 0;y<argb.getHeight();y++)
+				argb.setRGB(x, y, argb.getRGB(x, y) | 0xff000000); // opaque so 3BYTE_BGR holds the same pixels
+		for(String format : new String[] {"DXT1", "DXT5", "R8G8B8A8", "B8G8R8A8"}) {
+			int[] expected = pixels(new PapaTexture(argb, settings(format), null, format).getImage());
+			for(int type : new int[] {BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_RGB}) {
+				BufferedImage converted = new BufferedImage(argb.getWidth(), argb.getHeight(), type);
+				converted.getGraphics().drawImage(argb, 0, 0, null);
+				int[] actual = pixels(new PapaTexture(converted, settings(format), null, format).getImage());
+				checks.check(Arrays.equals(expected, actual), format+" encoded from image type "+type+" differs from TYPE_INT_ARGB");
+			}
+		}
+	}
+	
+	private static void parallelCompression(Random random) {
+		int width = 61, height = 37;
+		byte[] rgba = new byte[width * height * 4];
+		random.nextBytes(rgba);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(CompressionType type : CompressionType.values())
+				for(CompressionMethod method : new CompressionMethod[] {CompressionMethod.RANGE_FIT, CompressionMethod.CLUSTER_FIT}) {
+					byte[] serial = Squish.compressImage(rgba, width, height, null, type, method, CompressionMetric.PERCEPTUAL, false);
+					byte[] parallel = Squish.compressImageParallel(rgba, width, height, null, type, method, CompressionMetric.PERCEPTUAL, false, pool);
+					checks.check(Arrays.equals(serial, parallel), type+" "+method+" parallel compression differs from serial");
+				}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	private static PapaTexture texture(String format, byte formatIndex, int width, int height, byte[] data) throws IOException {
+		return new PapaTexture(format, formatIndex, (byte) 1, false, (short) width, (short) height, data.clone(), null);
+	}
+	
+	private static ImmutableTextureSettings settings(String format) {
+		return new TextureSettings(format, CompressionMethod.CLUSTER_FIT, false, 0, false, 0, 0, false, false, null, 0).immutable();
+	}
+	
+	private static BufferedImage randomImage(Random random, int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for(int y = 0;y<height;y++)
+			for(int x = 0;x<width;x++)
+				image.setRGB(x, y, random.nextInt());
+		return image;
+	}
+	
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.github.luther_1.ptexedit.papafile.PapaTexture.TextureSettings;
+import com.github.memo33.jsquish.Squish.CompressionMethod;
+
+/**
+ * Checks that packing a folder keeps every papa file byte for byte, that corrupt entries are rejected and that entries
+ * can be read from several threads at once.
+ */
+public class PackChecks {
+	
+	private static final Checks checks = new Checks("PackChecks");
+	
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("packchecks");
+		try {
+			Random random = new Random(7);
+			writePapa(directory.resolve("a.papa"), random);
+			writePapa(directory.resolve("sub/b.papa"), random);
+			writePapa(directory.resolve("sub/C.PAPA"), random); // the extension is matched ignoring case
+			Files.write(directory.resolve("notes.txt"), new byte[] {1, 2, 3});
+			Path target = directory.resolve("test."+PapaPack.EXTENSION);
+			
+			checks.check(PapaPack.pack(directory, target)==3, "pack did not take exactly the three papa files");
+			roundTrip(directory, target);
+			concurrentReads(target);
+			corruptEntry(target);
+			
+			Path upper = directory.resolve("UPPER.PAPAPACK");
+			Files.copy(target, upper);
+			checks.check(PapaPack.isPack(upper.toFile()), "isPack does not ignore case");
+			checks.check(!PapaPack.isPack(directory.resolve("a.papa").toFile()), "a papa file is taken for a pack");
+		} finally {
+			try(Stream<Path> walk = Files.walk(directory)) {
+				walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+		checks.finish();
+	}
+	
+	private static void roundTrip(Path directory, Path target) throws IOException {
+		ByteBuffer afterClose;
+		try(PapaPack pack = PapaPack.open(target)) {
+			checks.check(pack.getNumEntries()==3, "pack holds "+pack.getNumEntries()+" entries");
+			checks.check(pack.contains("/sub/b.papa") && pack.contains("sub/b.papa"), "entry paths are not normalised");
+			for(String path : pack.getEntryPaths()) {
+				byte[] original = Files.readAllBytes(directory.resolve(path));
+				checks.check(Arrays.equals(original, bytes(pack.getEntryData(path))), path+" changed in the pack");
+				BufferedImage packed = pack.readFile(path).getTexture(0).getImage();
+				BufferedImage direct = new PapaFile(directory.resolve(path)).getTexture(0).getImage();
+				checks.check(Arrays.equals(pixels(packed), pixels(direct)), path+" reads differently from the pack");
+			}
+			afterClose = pack.getEntryData("a.papa");
+		}
+		checks.check(Arrays.equals(Files.readAllBytes(directory.resolve("a.papa")), bytes(afterClose)), "entry data is not valid after the pack is closed");
+	}
+	
+	private static void concurrentReads(Path target) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try(PapaPack pack = PapaPack.open(target)) {
+			Future<?>[] reads = new Future<?>[16];
+			for(int i = 0;i<reads.length;i++)
+				reads[i] = executor.submit(() -> {
+					for(int n = 0;n<20;n++)
+						for(String path : pack.getEntryPaths())
+							pack.getEntryData(path);
+					return null;
+				});
+			for(Future<?> read : reads)
+				read.get();
+			checks.check(true, "");
+		} catch (Exception e) {
+			checks.fail("concurrent reads", e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private static void corruptEntry(Path target) throws IOException {
+		Path corrupt = target.resolveSibling("corrupt."+PapaPack.EXTENSION);
+		byte[] bytes = Files.readAllBytes(target);
+		bytes[24 + 100]^=1; // inside the first entry written
+		Files.write(corrupt, bytes);
+		int rejected = 0;
+		PapaPack closed;
+		try(PapaPack pack = PapaPack.open(corrupt)) {
+			for(String path : pack.getEntryPaths()) {
+				try {
+					pack.getEntryData(path);
+				} catch (IOException e) {
+					rejected++;
+				}
+			}
+			closed = pack;
+		}
+		checks.check(rejected==1, rejected+" entries rejected after corrupting one");
+		try {
+			closed.getEntryData(closed.getEntryPath(0));
+			checks.check(false, "a closed pack can still be read");
+		} catch (IOException e) {
+			checks.check(true, "");
+		}
+	}
+	
+	private static void writePapa(Path path, Random random) throws IOException {
+		Files.createDirectories(path.getParent());
+		BufferedImage image = new BufferedImage(32, 16, BufferedImage.TYPE_INT_ARGB);
+		for(int y = 0;y<image.getHeight();y++)
+			for(int x = 0;x<image.getWidth();x++)
+				image.setRGB(x, y, random.nextInt());
+		PapaFile p = new PapaFile();
+		p.addTexture(image, new TextureSettings("R8G8B8A8", CompressionMethod.CLUSTER_FIT, false, 0, false, 0, 0, false, false, null, 0).immutable());
+		p.getTexture(0).setName(path.getFileName().toString());
+		p.writeTo(path);
+	}
+	
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+	
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+}
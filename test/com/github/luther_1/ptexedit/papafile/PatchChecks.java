@@ -0,0 +1,164 @@
+/*
+ *  This file is part of PapaFile
+ * 
+ *  File IO tools for Planetary Annihilation's papa files.
+ *  Copyright (C) 2020 Marcus Der <marcusder@hotmail.com>
+ * 
+ *  PapaFile is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *  
+ *  PapaFile is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with PapaFile.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.github.luther_1.ptexedit.papafile;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.github.luther_1.ptexedit.papafile.PapaTexture.ImmutableTextureSettings;
+import com.github.luther_1.ptexedit.papafile.PapaTexture.TextureSettings;
+import com.github.memo33.jsquish.Squish.CompressionMethod;
+
+/**
+ * Checks that saving over the file a PapaFile was read from gives the same bytes as saving to a new file, whether the
+ * file is patched in place, patched with a longer or shorter string table, replaced because its bodies moved, or
+ * replaced because it was changed by something else.
+ */
+public class PatchChecks {
+	
+	private static final Checks checks = new Checks("PatchChecks");
+	
+	public static void main(String[] args) throws Exception {
+		Path directory = Files.createTempDirectory("patchchecks");
+		try {
+			Path file = directory.resolve("a.papa");
+			Path fresh = directory.resolve("b.papa");
+			Random random = new Random(11);
+			PapaFile original = new PapaFile();
+			original.addTexture(randomImage(random), settings());
+			original.addTexture(randomImage(random), settings());
+			original.getTexture(0).setName("first");
+			original.getTexture(1).setName("second");
+			original.writeTo(file);
+			
+			sameLayout(file, fresh);
+			longerName(file, fresh);
+			shorterName(file, fresh);
+			externalChange(file, fresh);
+			movedBodies(file, fresh); // last, the file has one texture less afterwards
+			checks.check(directory.toFile().list().length==2, "a temporary file was left behind");
+		} finally {
+			try(Stream<Path> walk = Files.walk(directory)) {
+				walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+		checks.finish();
+	}
+	
+	private static void sameLayout(Path file, Path fresh) throws IOException {
+		PapaFile p = new PapaFile(file);
+		int[] before = pixels(p.getTexture(1).getImage());
+		Object key = fileKey(file);
+		p.getTexture(0).setSRGB(!p.getTexture(0).getSRGB()); // only a header changes
+		p.writeTo(file);
+		p.writeTo(fresh);
+		checks.check(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(fresh)), "patched file differs from a fresh write");
+		checks.check(key==null || Objects.equals(key, fileKey(file)), "file with an unchanged layout was not patched in place");
+		checks.check(Arrays.equals(before, pixels(p.getTexture(1).getImage())), "texture changed after patching");
+		checks.check(Arrays.equals(before, pixels(new PapaFile(file).getTexture(1).getImage())), "patched file reads differently");
+	}
+	
+	private static void longerName(Path file, Path fresh) throws IOException {
+		PapaFile p = new PapaFile(file);
+		int[] before = pixels(p.getTexture(1).getImage());
+		Object key = fileKey(file);
+		long size = Files.size(file);
+		p.getTexture(0).setName("a considerably longer name than before"); // the string table is written last, no body moves
+		p.writeTo(file);
+		p.writeTo(fresh);
+		checks.check(Files.size(file) > size, "longer string table did not grow the file");
+		checks.check(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(fresh)), "patched file with a longer name differs from a fresh write");
+		checks.check(key==null || Objects.equals(key, fileKey(file)), "file with a longer name was not patched in place");
+		checks.check(Arrays.equals(before, pixels(new PapaFile(file).getTexture(1).getImage())), "patched file with a longer name reads differently");
+		checks.check(new PapaFile(file).getTexture(0).getName().equals("a considerably longer name than before"), "longer name was not saved");
+	}
+	
+	private static void shorterName(Path file, Path fresh) throws IOException {
+		PapaFile p = new PapaFile(file);
+		int[] before = pixels(p.getTexture(1).getImage());
+		Object key = fileKey(file);
+		long size = Files.size(file);
+		p.getTexture(0).setName("a");
+		p.writeTo(file);
+		p.writeTo(fresh);
+		byte[] patched = Files.readAllBytes(file);
+		byte[] written = Files.readAllBytes(fresh);
+		checks.check(patched.length==size && written.length < size, "shorter string table changed the length of the patched file");
+		checks.check(Arrays.equals(Arrays.copyOf(patched, written.length), written), "patched file with a shorter name differs from a fresh write");
+		checks.check(Arrays.equals(Arrays.copyOfRange(patched, written.length, patched.length), new byte[patched.length - written.length]), "old tail was not cleared");
+		checks.check(key==null || Objects.equals(key, fileKey(file)), "file with a shorter name was not patched in place");
+		checks.check(Arrays.equals(before, pixels(new PapaFile(file).getTexture(1).getImage())), "patched file with a shorter name reads differently");
+		checks.check(new PapaFile(file).getTexture(0).getName().equals("a"), "shorter name was not saved");
+	}
+	
+	private static void movedBodies(Path file, Path fresh) throws IOException {
+		PapaFile p = new PapaFile(file);
+		int[] before = pixels(p.getTexture(1).getImage());
+		p.removeTexture(p.getTexture(0)); // moves the body of the other texture
+		p.writeTo(file);
+		p.writeTo(fresh);
+		checks.check(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(fresh)), "rewritten file differs from a fresh write");
+		checks.check(Arrays.equals(before, pixels(new PapaFile(file).getTexture(0).getImage())), "rewritten file reads differently");
+	}
+	
+	private static void externalChange(Path file, Path fresh) throws IOException {
+		PapaFile p = new PapaFile(file);
+		p.getTexture(1).getImage(); // the bodies are read before the file changes underneath
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2]^=0xff; // inside a texture body, same length
+		FileTime modified = Files.getLastModifiedTime(file);
+		Files.write(file, bytes);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 1000));
+		p.getTexture(0).setSRGB(!p.getTexture(0).getSRGB());
+		p.writeTo(file);
+		p.writeTo(fresh);
+		checks.check(Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(fresh)), "externally changed file was patched instead of replaced");
+	}
+	
+	private static Object fileKey(Path path) throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+	}
+	
+	private static ImmutableTextureSettings settings() {
+		return new TextureSettings("R8G8B8A8", CompressionMethod.CLUSTER_FIT, false, 0, false, 0, 0, false, false, null, 0).immutable();
+	}
+	
+	private static BufferedImage randomImage(Random random) {
+		BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+		for(int y = 0;y<image.getHeight();y++)
+			for(int x = 0;x<image.getWidth();x++)
+				image.setRGB(x, y, random.nextInt());
+		return image;
+	}
+	
+	private static int[] pixels(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+}